@@ -0,0 +1,81 @@
+package net.dangmai.serializer.benchmark;
+
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+import net.dangmai.serializer.Apex;
+import net.dangmai.serializer.OutputOptions;
+import net.dangmai.serializer.generated.GeneratedAstSerializer;
+import net.dangmai.serializer.sink.JsonAstSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * jorje parsing, serialization and the two end to end, each over one size
+ * class of the test corpus per invocation: the score is the time to process
+ * the whole size class once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class AstBenchmark {
+
+  @Param({ "small", "medium", "large", "all" })
+  public String sizeClass;
+
+  private List<String> sources;
+  private List<ParserOutput> outputs;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    // jorje logs to stderr otherwise, as in Apex.main.
+    LogManager.getLogManager().reset();
+    sources = Corpus.load(sizeClass);
+    outputs = sources.stream().map(source -> Apex.parse(false, source)).toList();
+  }
+
+  @Benchmark
+  public void parse(Blackhole blackhole) {
+    for (String source : sources) {
+      blackhole.consume(Apex.parse(false, source));
+    }
+  }
+
+  @Benchmark
+  public void serialize() {
+    for (ParserOutput output : outputs) {
+      try (
+        JsonAstSink sink = new JsonAstSink(
+          OutputStream.nullOutputStream(),
+          false,
+          null
+        )
+      ) {
+        GeneratedAstSerializer.serialize(output, sink);
+      }
+    }
+  }
+
+  @Benchmark
+  public void getAST() throws IOException {
+    for (String source : sources) {
+      Apex.getAST(
+        false,
+        OutputOptions.DEFAULT,
+        source,
+        OutputStream.nullOutputStream()
+      );
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package net.dangmai.serializer.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The {@code .cls} files of the plugin's test suite, the same files
+ * {@code TestUtilities.getApexTestFiles} gives the parser tests, split into
+ * size classes so results show how each phase scales with file size.
+ */
+final class Corpus {
+
+  private Corpus() {}
+
+  /**
+   * Loads the sources of one size class: {@code small}, {@code medium} and
+   * {@code large} are the thirds of the corpus by length, {@code all} is the
+   * whole of it.
+   */
+  static List<String> load(String sizeClass) {
+    String directory = System.getProperty("apex.corpus");
+    if (directory == null) {
+      throw new IllegalStateException(
+        "Set the apex.corpus system property to the plugin's tests directory"
+      );
+    }
+    List<String> sources = new ArrayList<>();
+    try (Stream<Path> suites = Files.list(Path.of(directory))) {
+      for (Path suite : suites.filter(Files::isDirectory).toList()) {
+        try (Stream<Path> files = Files.list(suite)) {
+          for (Path file : files
+            .filter(f -> f.getFileName().toString().endsWith(".cls"))
+            .toList()) {
+            sources.add(Files.readString(file));
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    sources.sort(Comparator.comparingInt(String::length));
+    int third = sources.size() / 3;
+    return switch (sizeClass) {
+      case "small" -> sources.subList(0, third);
+      case "medium" -> sources.subList(third, 2 * third);
+      case "large" -> sources.subList(2 * third, sources.size());
+      case "all" -> sources;
+      default -> throw new IllegalArgumentException(
+        "Unknown size class: " + sizeClass
+      );
+    };
+  }
+}
@@ -5,28 +5,49 @@ import apex.jorje.semantic.compiler.SourceFile;
 import apex.jorje.semantic.compiler.parser.ParserEngine;
 import apex.jorje.semantic.compiler.parser.ParserOutput;
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.LogManager;
+import net.dangmai.serializer.cache.CacheKey;
+import net.dangmai.serializer.cache.DiskCache;
 import net.dangmai.serializer.generated.GeneratedAstSerializer;
+import net.dangmai.serializer.sink.AstFormat;
+import net.dangmai.serializer.sink.AstProfile;
+import net.dangmai.serializer.sink.AstSink;
+import net.dangmai.serializer.sink.JsonAstSink;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 
 public class Apex {
 
+  private static final long DEFAULT_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+  private static final List<String> CACHE_OPTIONS = List.of("c", "m");
+  // The options that streamed frames, always compact JSON with class names
+  // and every field, can't honor.
+  private static final List<String> STREAMED_OUTPUT_OPTIONS = List.of(
+    "p",
+    "f",
+    "d",
+    "profile",
+    "packed-locations",
+    "references"
+  );
+
   static {
     // Required for correct comment retention. Run once at class init (baked
     // into the native image via --initialize-at-build-time) instead of on
@@ -34,54 +55,186 @@ public class Apex {
     Locations.useIndexFactory();
   }
 
-  public static void getAST(
-    Boolean anonymous,
-    Boolean prettyPrint,
-    Reader reader,
-    Writer writer
-  ) throws IOException {
-    String sourceCode = IOUtils.toString(reader);
-    reader.close();
+  /**
+   * Parses Apex source with jorje. The engines returned by
+   * {@code ParserEngine.get} are reused across calls, so a long-lived process
+   * (batch mode, the HTTP server) pays jorje's setup cost only once.
+   */
+  public static ParserOutput parse(boolean anonymous, String sourceCode) {
     SourceFile sourceFile = SourceFile.builder().setBody(sourceCode).build();
-    long parseStartNs = System.nanoTime();
     ParserEngine engine;
     if (anonymous) {
       engine = ParserEngine.get(ParserEngine.Type.ANONYMOUS);
     } else {
       engine = ParserEngine.get(ParserEngine.Type.NAMED);
     }
-    ParserOutput output = engine.parse(
+    return engine.parse(
       sourceFile,
       ParserEngine.HiddenTokenBehavior.COLLECT_COMMENTS,
       ParserEngine.SoqlParserType.NEW
     );
-    long parseEndNs = System.nanoTime();
-
-    // Serialize the AST with the generated, reflection-free serializer.
-    GeneratedAstSerializer.serialize(output, writer, prettyPrint);
-    long serializeEndNs = System.nanoTime();
-
-    // Performance harness: when a perf file is configured, write jorje parse
-    // vs serialize timings to it. This keeps the stdout payload untouched and
-    // is inert outside benchmarking. The path comes from the `apexPerfFile`
-    // system property (used by tests) or the APEX_PERF_FILE environment
-    // variable (used by the Node perf harness).
-    // Only configure this from a short-lived per-invocation CLI process; never
-    // set it in the long-running server, where concurrent requests would race
-    // on a single file.
-    String perfFile = System.getProperty(
-      "apexPerfFile",
-      System.getenv("APEX_PERF_FILE")
-    );
-    if (perfFile != null && !perfFile.isEmpty()) {
-      Files.writeString(
-        Path.of(perfFile),
-        "{\"parseNs\":" +
-          (parseEndNs - parseStartNs) +
-          ",\"serializeNs\":" +
-          (serializeEndNs - parseEndNs) +
-          "}"
+  }
+
+  public static void getAST(
+    Boolean anonymous,
+    Boolean prettyPrint,
+    Reader reader,
+    Writer writer
+  ) throws IOException {
+    getAST(anonymous, reader, new JsonAstSink(writer, prettyPrint));
+  }
+
+  /**
+   * Writes the JSON AST to a byte stream as UTF-8. Prefer this to the
+   * {@link Writer} overload when the output ends up as bytes anyway.
+   */
+  public static void getAST(
+    Boolean anonymous,
+    Boolean prettyPrint,
+    Reader reader,
+    OutputStream outputStream
+  ) throws IOException {
+    getAST(
+      anonymous,
+      OutputOptions.DEFAULT.withPrettyPrint(prettyPrint),
+      reader,
+      outputStream
+    );
+  }
+
+  /** Like the JSON-only overloads, but encodes the AST as {@code options} say. */
+  public static void getAST(
+    Boolean anonymous,
+    OutputOptions options,
+    Reader reader,
+    OutputStream outputStream
+  ) throws IOException {
+    getAST(anonymous, reader, options.newSink(outputStream));
+  }
+
+  /**
+   * Like {@link #getAST(Boolean, OutputOptions, Reader, OutputStream)}, for
+   * source code that is already in memory, which saves copying it again.
+   */
+  public static void getAST(
+    Boolean anonymous,
+    OutputOptions options,
+    String sourceCode,
+    OutputStream outputStream
+  ) throws IOException {
+    getAST(anonymous, sourceCode, options.newSink(outputStream));
+  }
+
+  /**
+   * Like {@link #getAST(Boolean, OutputOptions, Reader, OutputStream)}, for a
+   * UTF-8 source file, which is read with a single read sized to the file.
+   */
+  public static void getAST(
+    Boolean anonymous,
+    OutputOptions options,
+    Path sourceFile,
+    OutputStream outputStream
+  ) throws IOException {
+    getAST(
+      anonymous,
+      Files.readString(sourceFile, StandardCharsets.UTF_8),
+      options.newSink(outputStream)
+    );
+  }
+
+  /**
+   * Serializes an already parsed AST, e.g. so a caller can parse first and only
+   * start writing its response once parsing has succeeded.
+   */
+  public static void serialize(
+    ParserOutput output,
+    OutputOptions options,
+    OutputStream outputStream
+  ) {
+    try (AstSink sink = options.newSink(outputStream)) {
+      GeneratedAstSerializer.serialize(output, sink);
+    }
+  }
+
+  /**
+   * Like {@link #getAST(Boolean, OutputOptions, Reader, OutputStream)}, but
+   * answers from {@code cache} when it holds the output for this source, and
+   * adds the output to it otherwise.
+   */
+  public static void getAST(
+    Boolean anonymous,
+    OutputOptions options,
+    Reader reader,
+    OutputStream outputStream,
+    DiskCache cache
+  ) throws IOException {
+    getAST(anonymous, options, readFully(reader), outputStream, cache);
+  }
+
+  /**
+   * Like {@link #getAST(Boolean, OutputOptions, Reader, OutputStream,
+   * DiskCache)}, for source code that is already in memory.
+   */
+  public static void getAST(
+    Boolean anonymous,
+    OutputOptions options,
+    String sourceCode,
+    OutputStream outputStream,
+    DiskCache cache
+  ) throws IOException {
+    getCachedAST(anonymous, options, sourceCode, outputStream, cache);
+  }
+
+  // Returns null when the output came from the cache.
+  private static PerfStats getCachedAST(
+    Boolean anonymous,
+    OutputOptions options,
+    String sourceCode,
+    OutputStream outputStream,
+    DiskCache cache
+  ) throws IOException {
+    String key = CacheKey.of(sourceCode, anonymous, options);
+    if (cache.copyTo(key, outputStream)) {
+      outputStream.flush();
+      return null;
+    }
+    try (DiskCache.Entry entry = cache.newEntry(key)) {
+      PerfStats stats = getAST(
+        anonymous,
+        sourceCode,
+        options.newSink(new TeeOutputStream(outputStream, entry))
       );
+      entry.commit();
+      return stats;
+    }
+  }
+
+  private static void getAST(Boolean anonymous, Reader reader, AstSink sink)
+    throws IOException {
+    getAST(anonymous, readFully(reader), sink);
+  }
+
+  private static String readFully(Reader reader) throws IOException {
+    try (reader) {
+      return IOUtils.toString(reader);
+    }
+  }
+
+  private static PerfStats getAST(
+    Boolean anonymous,
+    String sourceCode,
+    AstSink sink
+  ) {
+    try (sink) {
+      PerfStats stats = PerfStats.start();
+      ParserOutput output = parse(anonymous, sourceCode);
+      stats.parsed();
+
+      // Serialize the AST with the generated, reflection-free serializer.
+      GeneratedAstSerializer.serialize(output, sink);
+      sink.flush();
+      stats.serialized();
+      return stats;
     }
   }
 
@@ -95,21 +248,97 @@ public class Apex {
       "a",
       "anonymous",
       false,
-      "Parse Anonymous Apex code. If not specify, it will be parsed in Named mode."
+      "Parse Anonymous Apex code. If not specify, it will be parsed in Named mode, except for .apex files when parsing multiple files, which always hold Anonymous Apex."
+    );
+    cliOptions.addOption(
+      Option.builder("l")
+        .longOpt("location")
+        .hasArgs()
+        .desc(
+          "Location of Apex class file. If not specified, the Apex content will be read from stdin. Several files, directories or glob patterns can be given to parse them all in parallel."
+        )
+        .build()
+    );
+    cliOptions.addOption(
+      "o",
+      "output-dir",
+      true,
+      "When parsing multiple locations, write one JSON file per source into this directory instead of streaming newline-delimited JSON to stdout."
+    );
+    cliOptions.addOption(
+      "p",
+      "pretty",
+      false,
+      "Pretty print output. Not supported in batch mode or when streaming multiple files."
+    );
+    cliOptions.addOption(
+      "f",
+      "format",
+      true,
+      "Output format: json (default) or smile, a compact binary encoding of the same structure. Not supported in batch mode or when streaming multiple files."
+    );
+    cliOptions.addOption(
+      "d",
+      "class-dictionary",
+      false,
+      "Write each @class as an index into a @classes table written after the root, listing the classes the document uses in order of first use, instead of as a class name. Not supported in batch mode or when streaming multiple files."
+    );
+    cliOptions.addOption(
+      Option.builder()
+        .longOpt("profile")
+        .hasArg()
+        .desc(
+          "Which fields to write: full (default), or printer, which leaves out the fields prettier-plugin-apex never reads. Not supported in batch mode or when streaming multiple files."
+        )
+        .build()
+    );
+    cliOptions.addOption(
+      Option.builder()
+        .longOpt("packed-locations")
+        .desc(
+          "Write each location as a [startIndex, endIndex, line, column] array instead of as an object, without the column with --profile printer. Not supported in batch mode or when streaming multiple files."
+        )
+        .build()
+    );
+    cliOptions.addOption(
+      Option.builder()
+        .longOpt("references")
+        .desc(
+          "Write each repeat of a node with no objects nested in it, e.g. an enum value, as {\"@ref\": n}: a reference to the n-th such node written in full. Not supported in batch mode or when streaming multiple files."
+        )
+        .build()
     );
     cliOptions.addOption(
-      "l",
-      "location",
+      "c",
+      "cache-dir",
       true,
-      "Location of Apex class file. If not specified, the Apex content will be read from stdin."
+      "Cache the output for each source in this directory, and reuse it instead of parsing when the same source is serialized again with the same options. Not supported in batch mode or when parsing multiple files."
+    );
+    cliOptions.addOption(
+      "m",
+      "cache-max-bytes",
+      true,
+      "The size the cache directory is trimmed back to, least recently used entries first. Defaults to 256 MB."
+    );
+    cliOptions.addOption(
+      "b",
+      "batch",
+      false,
+      "Batch mode: read newline-delimited JSON requests from stdin and write one newline-delimited JSON response per request to stdout, until stdin is closed."
+    );
+    cliOptions.addOption(
+      Option.builder()
+        .longOpt("perf-stats")
+        .desc(
+          "Report how long parsing and serialization took and how much they allocated: as a line of JSON on stderr after the output, or as a \"stats\" field of each response in batch mode. Sources served from the cache report nothing."
+        )
+        .build()
     );
-    cliOptions.addOption("p", "pretty", false, "Pretty print output.");
     cliOptions.addOption("h", "help", false, "Print help information.");
     cliOptions.addOption("v", "version", false, "Print version information.");
 
     CommandLineParser cliParser = new DefaultParser();
     CommandLine cmd = cliParser.parse(cliOptions, args);
-    Reader apexReader;
 
     if (cmd.hasOption("h")) {
       HelpFormatter helpFormatter = new HelpFormatter();
@@ -129,25 +358,110 @@ public class Apex {
         System.err.println("Failed to read version information.");
         e.printStackTrace();
       }
+    } else if (cmd.hasOption("b")) {
+      rejectOptions(cmd, "batch mode", CACHE_OPTIONS);
+      rejectOptions(cmd, "batch mode", STREAMED_OUTPUT_OPTIONS);
+      BatchSession session = new BatchSession(
+        cmd.hasOption("a"),
+        cmd.hasOption("perf-stats")
+      );
+      session.run(
+        new BufferedReader(
+          new InputStreamReader(System.in, StandardCharsets.UTF_8)
+        ),
+        System.out
+      );
+    } else if (
+      cmd.hasOption("l") &&
+      (cmd.getOptionValues("l").length > 1 ||
+        cmd.hasOption("o") ||
+        MultiFileParser.isMultiFile(cmd.getOptionValue("l")))
+    ) {
+      rejectOptions(cmd, "when parsing multiple files", CACHE_OPTIONS);
+      if (!cmd.hasOption("o")) {
+        rejectOptions(
+          cmd,
+          "when streaming multiple files",
+          STREAMED_OUTPUT_OPTIONS
+        );
+      }
+      MultiFileParser parser = new MultiFileParser(
+        cmd.hasOption("a"),
+        outputOptions(cmd),
+        cmd.hasOption("o") ? Path.of(cmd.getOptionValue("o")) : null
+      );
+      int failures = parser.run(cmd.getOptionValues("l"), System.out);
+      if (failures > 0) {
+        throw new IOException("Failed to parse " + failures + " file(s)");
+      }
     } else {
-      if (cmd.hasOption("l")) {
-        apexReader = new FileReader(
-          cmd.getOptionValue("l"),
+      // Read the source once, straight into the String jorje parses.
+      String sourceCode = cmd.hasOption("l")
+        ? Files.readString(
+          Path.of(cmd.getOptionValue("l")),
           StandardCharsets.UTF_8
+        )
+        : readFully(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+      Boolean anonymous = cmd.hasOption("a");
+
+      PerfStats stats;
+      if (cmd.hasOption("c")) {
+        DiskCache cache = new DiskCache(
+          Path.of(cmd.getOptionValue("c")),
+          cmd.hasOption("m")
+            ? Long.parseLong(cmd.getOptionValue("m"))
+            : DEFAULT_CACHE_MAX_BYTES
+        );
+        stats = getCachedAST(
+          anonymous,
+          outputOptions(cmd),
+          sourceCode,
+          System.out,
+          cache
         );
       } else {
-        apexReader = new BufferedReader(
-          new InputStreamReader(System.in, StandardCharsets.UTF_8)
+        stats = getAST(
+          anonymous,
+          sourceCode,
+          outputOptions(cmd).newSink(System.out)
         );
       }
-      Writer writer = new OutputStreamWriter(
-        System.out,
-        StandardCharsets.UTF_8
-      );
-      Boolean anonymous = cmd.hasOption("a");
-      Boolean prettyPrint = cmd.hasOption("p");
+      // Reported in band, after the AST, so the stdout payload is untouched
+      // and concurrent invocations need no shared state to tell theirs apart.
+      if (cmd.hasOption("perf-stats") && stats != null) {
+        System.err.println(stats.toJson());
+      }
+    }
+  }
 
-      getAST(anonymous, prettyPrint, apexReader, writer);
+  /**
+   * Fails with a usage error if any of {@code options} was given, rather than
+   * silently ignoring it in a mode that doesn't support it.
+   */
+  private static void rejectOptions(
+    CommandLine cmd,
+    String mode,
+    List<String> options
+  ) throws ParseException {
+    for (String option : options) {
+      if (cmd.hasOption(option)) {
+        throw new ParseException(
+          (option.length() == 1 ? "-" : "--") +
+            option +
+            " is not supported in " +
+            mode
+        );
+      }
     }
   }
+
+  private static OutputOptions outputOptions(CommandLine cmd) {
+    return OutputOptions.DEFAULT
+      .withFormat(AstFormat.fromName(cmd.getOptionValue("f")))
+      .withPrettyPrint(cmd.hasOption("p"))
+      .withClassDictionary(cmd.hasOption("d"))
+      .withProfile(AstProfile.fromName(cmd.getOptionValue("profile")))
+      .withPackedLocations(cmd.hasOption("packed-locations"))
+      .withReferences(cmd.hasOption("references"));
+  }
 }
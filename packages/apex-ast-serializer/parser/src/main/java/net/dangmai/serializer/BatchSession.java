@@ -0,0 +1,123 @@
+package net.dangmai.serializer;
+
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Batch mode for the CLI: parses any number of sources in a single process, so
+ * process spawn and jorje initialization are paid once rather than per file.
+ *
+ * <p>Framing is newline-delimited JSON in both directions. Each request line is
+ * {@code {"id": ..., "sourceCode": "...", "anonymous": false}} ({@code id} and
+ * {@code anonymous} are optional); each response is written as one line,
+ * {@code {"id": ..., "ast": {...}}} on success or
+ * {@code {"id": ..., "error": "..."}} when the request itself is unusable or
+ * its AST can't be serialized ({@code id} is null if the line couldn't be read
+ * at all).
+ * Responses are flushed one at a time, in request order. jorje syntax errors are
+ * not request errors: they are reported inside the AST, as in single-file mode.
+ * With {@code perfStats}, each AST response also carries the
+ * {@link PerfStats} of its source, as a {@code "stats"} field.
+ */
+public final class BatchSession {
+
+  private final boolean defaultAnonymous;
+  private final boolean perfStats;
+
+  /**
+   * @param defaultAnonymous the parse mode for requests that don't specify
+   *     {@code anonymous} themselves
+   * @param perfStats add each source's {@link PerfStats} to its response
+   */
+  public BatchSession(boolean defaultAnonymous, boolean perfStats) {
+    this.defaultAnonymous = defaultAnonymous;
+    this.perfStats = perfStats;
+  }
+
+  /** Serves requests from {@code reader} until it is exhausted. */
+  public void run(BufferedReader reader, OutputStream outputStream)
+    throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.isBlank()) {
+        outputStream.write(handle(line));
+        outputStream.flush();
+      }
+    }
+  }
+
+  // Each frame is built off to the side, so a source that fails to serialize
+  // gets an error frame rather than leaving half a frame on the stream.
+  private byte[] handle(String line) {
+    String id = null;
+    try {
+      BatchRequest request = readRequest(line);
+      id = request.id();
+      PerfStats stats = perfStats ? PerfStats.start() : null;
+      ParserOutput output = Apex.parse(
+        request.anonymous(),
+        request.sourceCode()
+      );
+      if (stats != null) {
+        stats.parsed();
+      }
+      ByteArrayOutputStream frame = new ByteArrayOutputStream();
+      try (JsonGenerator generator = Frames.createGenerator(frame)) {
+        Frames.writeAst(generator, id, output, stats);
+      }
+      return frame.toByteArray();
+    } catch (IOException | RuntimeException e) {
+      ByteArrayOutputStream frame = new ByteArrayOutputStream();
+      try (JsonGenerator generator = Frames.createGenerator(frame)) {
+        Frames.writeError(generator, id, e);
+      } catch (IOException writeError) {
+        // Writing to a byte array doesn't fail.
+        throw new UncheckedIOException(writeError);
+      }
+      return frame.toByteArray();
+    }
+  }
+
+  private BatchRequest readRequest(String line) throws IOException {
+    try (JsonParser parser = Frames.FACTORY.createParser(line)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected a JSON object");
+      }
+      String id = null;
+      String sourceCode = null;
+      boolean anonymous = defaultAnonymous;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        switch (field) {
+          case "id" -> id = parser.getValueAsString();
+          case "sourceCode" -> sourceCode = parser.getValueAsString();
+          case "anonymous" -> anonymous = parser.getValueAsBoolean(
+            defaultAnonymous
+          );
+          default -> {}
+        }
+        // Also skips an object or array where a string or boolean belongs.
+        parser.skipChildren();
+      }
+      if (sourceCode == null) {
+        throw new JsonParseException(parser, "Missing \"sourceCode\"");
+      }
+      return new BatchRequest(id, sourceCode, anonymous);
+    }
+  }
+
+  private record BatchRequest(
+    String id,
+    String sourceCode,
+    boolean anonymous
+  ) {}
+}
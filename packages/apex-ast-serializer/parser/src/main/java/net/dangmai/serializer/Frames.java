@@ -0,0 +1,93 @@
+package net.dangmai.serializer;
+
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import net.dangmai.serializer.generated.GeneratedAstSerializer;
+import net.dangmai.serializer.sink.JacksonFactories;
+import net.dangmai.serializer.sink.JsonAstSink;
+
+/**
+ * The newline-delimited response frames shared by the multi-source CLI modes
+ * and the HTTP server's batch endpoint: {@code {"id": ..., "ast": {...}}} for
+ * a parsed source and {@code {"id": ..., "error": "..."}} for one that
+ * couldn't be processed. An AST frame may also carry the {@link PerfStats} of
+ * its source, as {@code "stats": {...}}.
+ */
+public final class Frames {
+
+  /**
+   * The factory frames are read and written with, configured like the AST
+   * sinks'; see {@link JacksonFactories}.
+   */
+  public static final JsonFactory FACTORY = JacksonFactories.JSON;
+
+  private Frames() {}
+
+  /**
+   * Creates a generator for writing frames. Frames are separated by the
+   * newline {@link #endFrame} writes, not by Jackson's default root-value
+   * separator (a space).
+   */
+  public static JsonGenerator createGenerator(OutputStream outputStream)
+    throws IOException {
+    JsonGenerator generator = FACTORY.createGenerator(
+      outputStream,
+      JsonEncoding.UTF8
+    );
+    generator.setRootValueSeparator(null);
+    return generator;
+  }
+
+  public static void writeAst(
+    JsonGenerator generator,
+    String id,
+    ParserOutput output
+  ) throws IOException {
+    writeAst(generator, id, output, null);
+  }
+
+  /**
+   * Like {@link #writeAst(JsonGenerator, String, ParserOutput)}, also timing
+   * the serialization into {@code stats}, unless it is {@code null}, and
+   * writing them after the AST.
+   */
+  public static void writeAst(
+    JsonGenerator generator,
+    String id,
+    ParserOutput output,
+    PerfStats stats
+  ) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("id", id);
+    generator.writeFieldName("ast");
+    GeneratedAstSerializer.serialize(output, new JsonAstSink(generator));
+    if (stats != null) {
+      stats.serialized();
+      generator.writeFieldName("stats");
+      stats.writeTo(generator);
+    }
+    generator.writeEndObject();
+    endFrame(generator);
+  }
+
+  public static void writeError(
+    JsonGenerator generator,
+    String id,
+    Exception error
+  ) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("id", id);
+    generator.writeStringField("error", error.toString());
+    generator.writeEndObject();
+    endFrame(generator);
+  }
+
+  private static void endFrame(JsonGenerator generator) throws IOException {
+    generator.writeRaw('\n');
+    generator.flush();
+  }
+}
@@ -0,0 +1,284 @@
+package net.dangmai.serializer;
+
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import net.dangmai.serializer.generated.GeneratedAstSerializer;
+import net.dangmai.serializer.sink.AstFormat;
+import net.dangmai.serializer.sink.AstSink;
+
+/**
+ * Parses and serializes many files in parallel, on a work-stealing
+ * {@link ForkJoinPool} sized to the available cores.
+ *
+ * <p>Locations may be files, directories (searched recursively for
+ * {@code .cls}, {@code .trigger} and {@code .apex} files) or glob patterns
+ * (e.g. {@code "force-app/**.cls"}, quoted so the shell doesn't expand it).
+ * Results are either written as one file per source under an output
+ * directory, mirroring the source layout and each moved into place only once
+ * complete, or streamed to stdout as the same newline-delimited frames batch
+ * mode uses, with the file path as the {@code id}, in completion order. Each
+ * frame is built in memory and written whole once its file is done, so
+ * concurrent workers never interleave partial lines: a frame holds a whole
+ * AST at a time, and the output is streamed file by file rather than as each
+ * file is serialized.
+ *
+ * <p>{@code .apex} files are always parsed as Anonymous Apex, and the rest
+ * only with {@code anonymous}.
+ *
+ * <p>The parse itself goes through {@link Apex#parse}, which shares jorje's
+ * engines across threads; the HTTP server already relies on them being safe
+ * for concurrent use, as it parses concurrent requests the same way. CliTest
+ * checks a parallel run over the test corpus against parsing each file on its
+ * own.
+ */
+public final class MultiFileParser {
+
+  private static final List<String> EXTENSIONS = List.of(
+    ".cls",
+    ".trigger",
+    ".apex"
+  );
+
+  private final boolean anonymous;
+  private final OutputOptions options;
+  private final Path outputDir;
+
+  /**
+   * @param anonymous parse every file as Anonymous Apex; otherwise only
+   *     {@code .apex} files are
+   * @param options how to encode the per-file outputs; streamed frames are
+   *     always compact JSON with class names, one line each
+   * @param outputDir where to write the per-file outputs, or {@code null} to
+   *     stream frames to stdout instead
+   */
+  public MultiFileParser(
+    boolean anonymous,
+    OutputOptions options,
+    Path outputDir
+  ) {
+    if (outputDir == null && options.format() != AstFormat.JSON) {
+      throw new IllegalArgumentException(
+        "Only JSON can be streamed; pass an output directory for " +
+          options.format()
+      );
+    }
+    this.anonymous = anonymous;
+    this.options = options;
+    this.outputDir = outputDir;
+  }
+
+  /** Whether a single location needs multi-file handling. */
+  public static boolean isMultiFile(String location) {
+    return isGlob(location) || Files.isDirectory(Path.of(location));
+  }
+
+  /**
+   * Parses every source the locations resolve to.
+   *
+   * @return the number of sources that failed
+   */
+  public int run(String[] locations, OutputStream outputStream)
+    throws IOException {
+    List<Source> sources = resolve(locations);
+    AtomicInteger failures = new AtomicInteger();
+    ForkJoinPool pool = new ForkJoinPool(
+      Runtime.getRuntime().availableProcessors()
+    );
+    try {
+      List<ForkJoinTask<?>> tasks = new ArrayList<>(sources.size());
+      for (Source source : sources) {
+        tasks.add(
+          pool.submit(() -> {
+            if (!process(source, outputStream)) {
+              failures.incrementAndGet();
+            }
+          })
+        );
+      }
+      for (ForkJoinTask<?> task : tasks) {
+        task.join();
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return failures.get();
+  }
+
+  private boolean process(Source source, OutputStream stream) {
+    String id = source.file().toString();
+    try {
+      String sourceCode = Files.readString(source.file());
+      // .apex is the extension Salesforce tooling gives Anonymous Apex
+      // scripts, so those are parsed as such even without --anonymous,
+      // letting one run cover a project's classes, triggers and scripts.
+      ParserOutput output = Apex.parse(
+        anonymous || id.endsWith(".apex"),
+        sourceCode
+      );
+      if (outputDir != null) {
+        Path target = outputDir.resolve(
+          source.relativePath() +
+            "." +
+            options.format().name().toLowerCase(Locale.ROOT)
+        );
+        Files.createDirectories(target.getParent());
+        writeOutput(target, output);
+      } else {
+        // Each frame is built off to the side, so concurrent workers never
+        // interleave partial lines on the shared stream.
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        try (JsonGenerator generator = Frames.createGenerator(frame)) {
+          Frames.writeAst(generator, id, output);
+        }
+        write(stream, frame);
+      }
+      return true;
+    } catch (IOException | RuntimeException e) {
+      if (outputDir != null) {
+        // With the stack trace, like any other failure of the CLI; the lock
+        // keeps concurrent workers' reports apart.
+        synchronized (System.err) {
+          System.err.println("Failed to parse " + id);
+          e.printStackTrace();
+        }
+      } else {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        try (JsonGenerator generator = Frames.createGenerator(frame)) {
+          Frames.writeError(generator, id, e);
+          write(stream, frame);
+        } catch (IOException writeError) {
+          throw new UncheckedIOException(writeError);
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Serializes into a temporary sibling of {@code target} and moves it into
+   * place once complete, like {@link net.dangmai.serializer.cache.DiskCache},
+   * so a failure midway never leaves a truncated output behind, or replaces
+   * one from an earlier run. The name is per thread, as a worker writes one
+   * output at a time.
+   */
+  private void writeOutput(Path target, ParserOutput output)
+    throws IOException {
+    Path temp = target.resolveSibling(
+      target.getFileName() + "." + Thread.currentThread().getId() + ".tmp"
+    );
+    try {
+      try (
+        OutputStream outputStream = new BufferedOutputStream(
+          Files.newOutputStream(temp)
+        );
+        AstSink sink = options.newSink(outputStream)
+      ) {
+        GeneratedAstSerializer.serialize(output, sink);
+      }
+      try {
+        Files.move(
+          temp,
+          target,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING
+        );
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static void write(OutputStream stream, ByteArrayOutputStream frame)
+    throws IOException {
+    synchronized (stream) {
+      frame.writeTo(stream);
+      stream.flush();
+    }
+  }
+
+  /** Expands the locations into source files, each with the root it's under. */
+  private static List<Source> resolve(String[] locations) throws IOException {
+    // Keyed by absolute path so overlapping locations parse a file once.
+    Map<Path, Source> sources = new LinkedHashMap<>();
+    for (String location : locations) {
+      if (isGlob(location)) {
+        Path root = globRoot(location);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+          "glob:" + location
+        );
+        try (Stream<Path> files = Files.walk(root)) {
+          files
+            .filter(file -> Files.isRegularFile(file) && matcher.matches(file))
+            .forEach(file -> add(sources, root, file));
+        }
+      } else {
+        Path path = Path.of(location);
+        if (Files.isDirectory(path)) {
+          try (Stream<Path> files = Files.walk(path)) {
+            files
+              .filter(file -> Files.isRegularFile(file) && isApexFile(file))
+              .forEach(file -> add(sources, path, file));
+          }
+        } else {
+          Path parent = path.getParent();
+          add(sources, parent != null ? parent : Path.of(""), path);
+        }
+      }
+    }
+    return new ArrayList<>(sources.values());
+  }
+
+  private static void add(Map<Path, Source> sources, Path root, Path file) {
+    Path absoluteFile = file.toAbsolutePath().normalize();
+    Path relativePath = root
+      .toAbsolutePath()
+      .normalize()
+      .relativize(absoluteFile);
+    sources.putIfAbsent(absoluteFile, new Source(file, relativePath));
+  }
+
+  private static boolean isApexFile(Path file) {
+    String name = file.getFileName().toString();
+    return EXTENSIONS.stream().anyMatch(name::endsWith);
+  }
+
+  private static boolean isGlob(String location) {
+    return location.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0);
+  }
+
+  /** The longest leading run of non-glob path segments, where the walk starts. */
+  private static Path globRoot(String glob) {
+    Path root = Path.of("");
+    for (String segment : glob.split("[/\\\\]")) {
+      if (isGlob(segment)) {
+        break;
+      }
+      root = segment.isEmpty() ? Path.of("/") : root.resolve(segment);
+    }
+    return root;
+  }
+
+  private record Source(Path file, Path relativePath) {}
+}
@@ -0,0 +1,121 @@
+package net.dangmai.serializer;
+
+import java.io.OutputStream;
+import net.dangmai.serializer.generated.GeneratedAstSerializer;
+import net.dangmai.serializer.sink.AstFormat;
+import net.dangmai.serializer.sink.AstProfile;
+import net.dangmai.serializer.sink.AstSink;
+import net.dangmai.serializer.sink.ReferencingAstSink;
+
+/**
+ * How a serialized AST is encoded, shared by the CLI, multi-file mode and the
+ * HTTP server.
+ *
+ * @param format the wire format
+ * @param prettyPrint pretty print the output (JSON only)
+ * @param classDictionary write {@code @class} values as indexes into the
+ *     document's own {@code @classes} table, written after the root, instead
+ *     of as class names; see {@link AstSink}
+ * @param profile which fields to write
+ * @param packedLocations write each location as a
+ *     {@code [startIndex, endIndex, line, column]} array instead of as a classed
+ *     node, without the column under the printer profile; see {@link AstSink}
+ * @param references write repeated leaf nodes as back-references; see
+ *     {@link ReferencingAstSink}
+ */
+public record OutputOptions(
+  AstFormat format,
+  boolean prettyPrint,
+  boolean classDictionary,
+  AstProfile profile,
+  boolean packedLocations,
+  boolean references
+) {
+  /** Compact JSON with class names and every field, the historical output. */
+  public static final OutputOptions DEFAULT = new OutputOptions(
+    AstFormat.JSON,
+    false,
+    false,
+    AstProfile.FULL,
+    false,
+    false
+  );
+
+  public OutputOptions withFormat(AstFormat format) {
+    return new OutputOptions(
+      format,
+      prettyPrint,
+      classDictionary,
+      profile,
+      packedLocations,
+      references
+    );
+  }
+
+  public OutputOptions withPrettyPrint(boolean prettyPrint) {
+    return new OutputOptions(
+      format,
+      prettyPrint,
+      classDictionary,
+      profile,
+      packedLocations,
+      references
+    );
+  }
+
+  public OutputOptions withClassDictionary(boolean classDictionary) {
+    return new OutputOptions(
+      format,
+      prettyPrint,
+      classDictionary,
+      profile,
+      packedLocations,
+      references
+    );
+  }
+
+  public OutputOptions withProfile(AstProfile profile) {
+    return new OutputOptions(
+      format,
+      prettyPrint,
+      classDictionary,
+      profile,
+      packedLocations,
+      references
+    );
+  }
+
+  public OutputOptions withPackedLocations(boolean packedLocations) {
+    return new OutputOptions(
+      format,
+      prettyPrint,
+      classDictionary,
+      profile,
+      packedLocations,
+      references
+    );
+  }
+
+  public OutputOptions withReferences(boolean references) {
+    return new OutputOptions(
+      format,
+      prettyPrint,
+      classDictionary,
+      profile,
+      packedLocations,
+      references
+    );
+  }
+
+  /** Creates a sink writing with these options to {@code outputStream}. */
+  public AstSink newSink(OutputStream outputStream) {
+    AstSink sink = format.newSink(
+      outputStream,
+      prettyPrint,
+      classDictionary ? GeneratedAstSerializer.CLASS_TABLE : null,
+      profile,
+      packedLocations
+    );
+    return references ? new ReferencingAstSink(sink) : sink;
+  }
+}
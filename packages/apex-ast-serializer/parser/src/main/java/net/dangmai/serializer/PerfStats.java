@@ -0,0 +1,103 @@
+package net.dangmai.serializer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The cost of turning one source into an AST on the current thread, for the
+ * benchmark harness: how long jorje took to parse it, how long it took to
+ * serialize, and how many bytes both allocated. Written as
+ * {@code {"parseNs": ..., "serializeNs": ..., "allocatedBytes": ...}}, where
+ * {@code allocatedBytes} is left out when the JVM can't measure it.
+ *
+ * <p>Start one just before parsing, then call {@link #parsed} and
+ * {@link #serialized} as each step finishes, on the same thread.
+ */
+public final class PerfStats {
+
+  private static final ThreadMXBean THREADS =
+    ManagementFactory.getThreadMXBean();
+
+  private final long startNs;
+  private final long startBytes;
+  private long parsedNs;
+  private long serializedNs;
+  private long endBytes;
+
+  private PerfStats() {
+    startBytes = threadAllocatedBytes();
+    startNs = System.nanoTime();
+  }
+
+  public static PerfStats start() {
+    return new PerfStats();
+  }
+
+  public void parsed() {
+    parsedNs = System.nanoTime();
+  }
+
+  public void serialized() {
+    serializedNs = System.nanoTime();
+    endBytes = threadAllocatedBytes();
+  }
+
+  public long parseNs() {
+    return parsedNs - startNs;
+  }
+
+  public long serializeNs() {
+    return serializedNs - parsedNs;
+  }
+
+  /** The bytes allocated in between, or -1 if they couldn't be measured. */
+  public long allocatedBytes() {
+    return startBytes < 0 || endBytes < 0 ? -1 : endBytes - startBytes;
+  }
+
+  public void writeTo(JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+    generator.writeNumberField("parseNs", parseNs());
+    generator.writeNumberField("serializeNs", serializeNs());
+    if (allocatedBytes() >= 0) {
+      generator.writeNumberField("allocatedBytes", allocatedBytes());
+    }
+    generator.writeEndObject();
+  }
+
+  /** Returns the stats as a single line of JSON. */
+  public String toJson() {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try (
+      JsonGenerator generator = Frames.FACTORY.createGenerator(
+        json,
+        JsonEncoding.UTF8
+      )
+    ) {
+      writeTo(generator);
+    } catch (IOException e) {
+      // Writing to a byte array doesn't fail.
+      throw new UncheckedIOException(e);
+    }
+    return json.toString(StandardCharsets.UTF_8);
+  }
+
+  // The bytes the current thread has allocated so far, or -1 where that isn't
+  // supported, e.g. in native images.
+  private static long threadAllocatedBytes() {
+    if (
+      THREADS instanceof com.sun.management.ThreadMXBean threads &&
+      threads.isThreadAllocatedMemorySupported() &&
+      threads.isThreadAllocatedMemoryEnabled()
+    ) {
+      return threads.getCurrentThreadAllocatedBytes();
+    }
+    return -1;
+  }
+}
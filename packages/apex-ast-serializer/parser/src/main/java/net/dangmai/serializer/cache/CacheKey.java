@@ -0,0 +1,69 @@
+package net.dangmai.serializer.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+import net.dangmai.serializer.OutputOptions;
+
+/**
+ * Content-addressed keys for cached serialized ASTs: a SHA-256 of the source
+ * code plus everything else that determines the output bytes, i.e. the parse
+ * mode, the {@link OutputOptions} and the serializer version. A new release
+ * (and with it, possibly a new jorje) never hits entries an older one wrote.
+ */
+public final class CacheKey {
+
+  /** The serializer version from {@code parser.properties}. */
+  public static final String SERIALIZER_VERSION = loadVersion();
+
+  private CacheKey() {}
+
+  /** Returns the key, as a lowercase hex string safe to use as a file name. */
+  public static String of(
+    String sourceCode,
+    boolean anonymous,
+    OutputOptions options
+  ) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+    digest.update(SERIALIZER_VERSION.getBytes(StandardCharsets.UTF_8));
+    digest.update(
+      new byte[] {
+        0,
+        (byte) (anonymous ? 1 : 0),
+        (byte) options.format().ordinal(),
+        (byte) (options.prettyPrint() ? 1 : 0),
+        (byte) (options.classDictionary() ? 1 : 0),
+        (byte) options.profile().ordinal(),
+        (byte) (options.packedLocations() ? 1 : 0),
+        (byte) (options.references() ? 1 : 0),
+      }
+    );
+    digest.update(sourceCode.getBytes(StandardCharsets.UTF_8));
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static String loadVersion() {
+    try (
+      InputStream stream = CacheKey.class.getResourceAsStream(
+        "/parser.properties"
+      )
+    ) {
+      Properties properties = new Properties();
+      properties.load(stream);
+      return properties.getProperty("version");
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read parser.properties", e);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package net.dangmai.serializer.cache;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of serialized ASTs for the CLI, one file per
+ * {@link CacheKey} in a cache directory, so a process formatting an unchanged
+ * file can skip jorje entirely.
+ *
+ * <p>Entries are written to a temporary file and atomically moved into place,
+ * so concurrent processes sharing the directory only ever see complete
+ * entries. Reads memory-map the entry. Every so often when an entry is added
+ * (on average once every {@value #EVICTION_SAMPLING} entries, so most runs
+ * don't list the whole directory), the least recently used entries (by
+ * modification time, which a hit refreshes) are deleted until the directory is
+ * back under its size cap. Eviction is best-effort: an entry that can't be
+ * deleted, e.g. because another process still has it mapped, is left for a
+ * later run.
+ */
+public final class DiskCache {
+
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int EVICTION_SAMPLING = 16;
+
+  private final Path directory;
+  private final long maxBytes;
+  private final int evictionSampling;
+
+  public DiskCache(Path directory, long maxBytes) throws IOException {
+    this(directory, maxBytes, EVICTION_SAMPLING);
+  }
+
+  /** Evicts on one in {@code evictionSampling} added entries. */
+  DiskCache(Path directory, long maxBytes, int evictionSampling)
+    throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.maxBytes = maxBytes;
+    this.evictionSampling = evictionSampling;
+  }
+
+  /**
+   * Copies the entry for {@code key} to {@code outputStream}, if there is one.
+   *
+   * @return whether the entry existed
+   */
+  public boolean copyTo(String key, OutputStream outputStream)
+    throws IOException {
+    Path file = directory.resolve(key);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(
+        FileChannel.MapMode.READ_ONLY,
+        0,
+        channel.size()
+      );
+      WritableByteChannel target = Channels.newChannel(outputStream);
+      while (buffer.hasRemaining()) {
+        target.write(buffer);
+      }
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+    try {
+      Files.setLastModifiedTime(
+        file,
+        FileTime.fromMillis(System.currentTimeMillis())
+      );
+    } catch (NoSuchFileException e) {
+      // Evicted by another process in the meantime; the copy is still good.
+    }
+    return true;
+  }
+
+  /**
+   * Starts writing the entry for {@code key}. The entry only becomes visible
+   * once {@link Entry#commit} is called; closing it without committing
+   * discards it.
+   */
+  public Entry newEntry(String key) throws IOException {
+    Path temp = Files.createTempFile(directory, key, TEMP_SUFFIX);
+    return new Entry(directory.resolve(key), temp);
+  }
+
+  /** A cache entry being written. */
+  public final class Entry extends FilterOutputStream {
+
+    private final Path file;
+    private final Path temp;
+    private boolean closed;
+
+    private Entry(Path file, Path temp) throws IOException {
+      super(Files.newOutputStream(temp));
+      this.file = file;
+      this.temp = temp;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      // FilterOutputStream would write byte by byte.
+      out.write(b, off, len);
+    }
+
+    /**
+     * Closes the entry and moves it into place, then, now and again, enforces
+     * the size cap.
+     */
+    public void commit() throws IOException {
+      closeTemp();
+      try {
+        Files.move(
+          temp,
+          file,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING
+        );
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      if (ThreadLocalRandom.current().nextInt(evictionSampling) == 0) {
+        evict();
+      }
+    }
+
+    /** Discards the entry, unless it has been committed. */
+    @Override
+    public void close() throws IOException {
+      closeTemp();
+      Files.deleteIfExists(temp);
+    }
+
+    private void closeTemp() throws IOException {
+      if (!closed) {
+        closed = true;
+        super.close();
+      }
+    }
+  }
+
+  // By the time it runs, the AST has been written out, so a failure here
+  // mustn't fail the run.
+  private void evict() {
+    List<CachedFile> files = new ArrayList<>();
+    long totalBytes = 0;
+    try (Stream<Path> entries = Files.list(directory)) {
+      for (Path path : (Iterable<Path>) entries::iterator) {
+        if (path.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+          continue;
+        }
+        try {
+          BasicFileAttributes attributes = Files.readAttributes(
+            path,
+            BasicFileAttributes.class
+          );
+          files.add(
+            new CachedFile(
+              path,
+              attributes.size(),
+              attributes.lastModifiedTime().toMillis()
+            )
+          );
+          totalBytes += attributes.size();
+        } catch (IOException e) {
+          // Evicted by another process, or otherwise unreadable.
+        }
+      }
+    } catch (IOException | UncheckedIOException e) {
+      return;
+    }
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+    files.sort(Comparator.comparingLong(CachedFile::lastModified));
+    for (CachedFile cachedFile : files) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      try {
+        Files.deleteIfExists(cachedFile.path());
+        totalBytes -= cachedFile.size();
+      } catch (IOException e) {
+        // Still in use, or being evicted by another process; try the next.
+      }
+    }
+  }
+
+  private record CachedFile(Path path, long size, long lastModified) {}
+}
@@ -0,0 +1,71 @@
+package net.dangmai.serializer.sink;
+
+import java.io.OutputStream;
+import java.util.Locale;
+
+/** The wire formats the AST can be serialized to, one per {@link AstSink}. */
+public enum AstFormat {
+  JSON("application/json"),
+  SMILE("application/x-jackson-smile");
+
+  private final String mediaType;
+
+  AstFormat(String mediaType) {
+    this.mediaType = mediaType;
+  }
+
+  public String getMediaType() {
+    return mediaType;
+  }
+
+  /**
+   * Creates a sink writing this format to {@code outputStream}. Pretty printing
+   * only applies to JSON; the binary formats ignore it.
+   *
+   * @param classTable the class table to write {@code @class} values as indexes
+   *     into (the class dictionary), or {@code null} to write class names
+   * @param profile which fields the serializer writes
+   * @param packedLocations write locations as packed arrays
+   */
+  public AstSink newSink(
+    OutputStream outputStream,
+    boolean prettyPrint,
+    String[] classTable,
+    AstProfile profile,
+    boolean packedLocations
+  ) {
+    return switch (this) {
+      case JSON -> new JsonAstSink(
+        outputStream,
+        prettyPrint,
+        classTable,
+        profile,
+        packedLocations
+      );
+      case SMILE -> new SmileAstSink(
+        outputStream,
+        classTable,
+        profile,
+        packedLocations
+      );
+    };
+  }
+
+  /**
+   * Looks up a format by its case-insensitive name, defaulting to JSON when no
+   * name is given.
+   *
+   * @throws IllegalArgumentException if the name is not a known format
+   */
+  public static AstFormat fromName(String name) {
+    if (name == null || name.isEmpty()) {
+      return JSON;
+    }
+    for (AstFormat format : values()) {
+      if (format.name().equals(name.toUpperCase(Locale.ROOT))) {
+        return format;
+      }
+    }
+    throw new IllegalArgumentException("Unknown AST format: " + name);
+  }
+}
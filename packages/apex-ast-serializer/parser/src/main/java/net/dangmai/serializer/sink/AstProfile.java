@@ -0,0 +1,34 @@
+package net.dangmai.serializer.sink;
+
+import java.util.Locale;
+
+/**
+ * Which of each node's fields the serializer writes to an {@link AstSink}.
+ */
+public enum AstProfile {
+  /** Every field, as XStream used to write them. */
+  FULL,
+  /**
+   * Every field except those prettier-plugin-apex never reads, as listed in the
+   * generator's {@code printer-profile.properties}.
+   */
+  PRINTER;
+
+  /**
+   * Looks up a profile by its case-insensitive name, defaulting to
+   * {@link #FULL} when no name is given.
+   *
+   * @throws IllegalArgumentException if the name is not a known profile
+   */
+  public static AstProfile fromName(String name) {
+    if (name == null || name.isEmpty()) {
+      return FULL;
+    }
+    for (AstProfile profile : values()) {
+      if (profile.name().equals(name.toUpperCase(Locale.ROOT))) {
+        return profile;
+      }
+    }
+    throw new IllegalArgumentException("Unknown AST profile: " + name);
+  }
+}
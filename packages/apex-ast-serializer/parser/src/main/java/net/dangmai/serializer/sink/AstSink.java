@@ -1,5 +1,6 @@
 package net.dangmai.serializer.sink;
 
+import com.fasterxml.jackson.core.SerializableString;
 import java.math.BigDecimal;
 
 /**
@@ -7,14 +8,19 @@ import java.math.BigDecimal;
  *
  * <p>The generated, reflection-free serializer walks a parsed AST and drives an
  * {@code AstSink}; a concrete sink turns those calls into bytes. {@link JsonAstSink}
- * is the JSON backend that reproduces the structure XStream used to emit; a binary
- * backend (protobuf, etc.) could implement the same interface later.
+ * is the JSON backend that reproduces the structure XStream used to emit;
+ * {@link SmileAstSink} encodes the same structure in a compact binary format.
+ * {@link AstFormat} picks between them.
  *
  * <p>The shapes this models, as produced by the old XStream pipeline:
  * <ul>
  *   <li><b>Root</b> — {@code {"<rootClassName>": { ...fields... }}} via
  *       {@link #startDocument}/{@link #endDocument}. The root carries no
  *       {@code @class}; its class name is the wrapper key.</li>
+ *   <li><b>Class dictionary</b> (opt-in) — every {@code @class} with a class
+ *       id is written as an index into {@code "@classes": ["<className>", ...]},
+ *       which the wrapper holds after the root key and which lists only the
+ *       classes the document uses, in order of first use.</li>
  *   <li><b>Classed node</b> — {@code {"@class": "<className>", ...fields...}} via
  *       {@link #startObject(String)}/{@link #endObject}. Used for every object that
  *       appears as a field value or collection element.</li>
@@ -26,6 +32,12 @@ import java.math.BigDecimal;
  *       {@code {"@class": "int", "$": 1}}. No dedicated method is needed — call
  *       {@link #startObject(String)}, {@code name("$")}, a value, then
  *       {@link #endObject}.</li>
+ *   <li><b>Packed location</b> (opt-in) — every {@code apex.jorje.data.Location}
+ *       is written as {@code [startIndex, endIndex, line, column]} instead of
+ *       as a classed node, via {@link #startArray}/{@link #endArray}; the
+ *       printer profile leaves out the column.</li>
+ *   <li><b>Reference</b> (opt-in) — every repeat of a leaf node is written
+ *       as {@code {"@ref": n}}; see {@link ReferencingAstSink}.</li>
  *   <li><b>Array</b> — lists are {@code [item, ...]}; maps are arrays of
  *       {@code [key, value]} tuples (so a map is an outer array of two-element inner
  *       arrays). Both via {@link #startArray}/{@link #endArray}.</li>
@@ -33,8 +45,10 @@ import java.math.BigDecimal;
  *
  * <p>Implementations translate any backend I/O failure into an unchecked exception
  * so generated code can call these methods without {@code throws} clauses.
+ * Close a sink once the document is written, so that its buffers can be
+ * reused by the next one.
  */
-public interface AstSink {
+public interface AstSink extends AutoCloseable {
   /** Begins the root document: {@code {"<rootClassName>": {}. */
   void startDocument(String rootClassName);
 
@@ -47,12 +61,26 @@ public interface AstSink {
   /** Begins an object node, writing its {@code @class} discriminator first. */
   void startObject(String className);
 
+  /**
+   * Begins an object node whose class name is pre-encoded and has an id in the
+   * serializer's class table. A sink writing the class dictionary writes an
+   * index into its {@code @classes} table as the {@code @class} value instead
+   * of the name.
+   */
+  void startObject(SerializableString className, int classId);
+
   /** Ends the current object. */
   void endObject();
 
   /** Writes a field name; the next call must write that field's value. */
   void name(String fieldName);
 
+  /**
+   * Writes a pre-encoded field name, as the generated serializer does for every
+   * field it knows of; the backend can copy its encoded bytes directly.
+   */
+  void name(SerializableString fieldName);
+
   void valueString(String value);
 
   void valueLong(long value);
@@ -72,4 +100,21 @@ public interface AstSink {
 
   /** Flushes any buffered output to the underlying target. */
   void flush();
+
+  /**
+   * Flushes any buffered output and releases the sink's buffers. The
+   * underlying target is left open.
+   */
+  @Override
+  void close();
+
+  /** Which fields the serializer writes to this sink. */
+  default AstProfile profile() {
+    return AstProfile.FULL;
+  }
+
+  /** Whether the serializer writes locations as packed arrays. */
+  default boolean packedLocations() {
+    return false;
+  }
 }
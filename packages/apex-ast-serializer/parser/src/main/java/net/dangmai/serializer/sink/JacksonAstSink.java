@@ -0,0 +1,265 @@
+package net.dangmai.serializer.sink;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+
+/**
+ * Shared {@link AstSink} implementation for the Jackson Core streaming backends.
+ * Every Jackson data format exposes the same {@link JsonGenerator} API, so the
+ * concrete sinks only differ in how they create their generator.
+ *
+ * <p>Each method calls the generator in its own try block rather than passing
+ * a lambda to a shared helper: a capturing lambda is a new object per call
+ * wherever escape analysis doesn't remove it, as in the native image, and the
+ * serializer makes several of these calls for every node.
+ */
+abstract class JacksonAstSink implements AstSink {
+
+  private static final SerializableString CLASS_FIELD = new SerializedString(
+    "@class"
+  );
+  private static final SerializableString CLASSES_FIELD = new SerializedString(
+    "@classes"
+  );
+
+  final JsonGenerator generator;
+  private final String[] classTable;
+  private final AstProfile profile;
+  private final boolean packedLocations;
+  // Class dictionary state: the document's own ids, assigned densely in order
+  // of first use so the trailing @classes table only lists the classes this
+  // document contains. documentIds holds id + 1 per class table entry, 0 while
+  // unassigned.
+  private final int[] documentIds;
+  private final String[] documentClasses;
+  private int documentClassCount;
+
+  /**
+   * @param classTable the serializer's class table, to write {@code @class}
+   *     values as dictionary indexes, or {@code null} to write class names
+   * @param profile which fields the serializer writes
+   * @param packedLocations write locations as packed arrays
+   */
+  JacksonAstSink(
+    JsonGenerator generator,
+    String[] classTable,
+    AstProfile profile,
+    boolean packedLocations
+  ) {
+    this.generator = generator;
+    this.classTable = classTable;
+    this.profile = profile;
+    this.packedLocations = packedLocations;
+    this.documentIds = classTable != null ? new int[classTable.length] : null;
+    this.documentClasses = classTable != null
+      ? new String[classTable.length]
+      : null;
+  }
+
+  @Override
+  public void startDocument(String rootClassName) {
+    try {
+      generator.writeStartObject();
+      generator.writeFieldName(rootClassName);
+      generator.writeStartObject();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void endDocument() {
+    try {
+      generator.writeEndObject();
+      if (classTable != null) {
+        generator.writeFieldName(CLASSES_FIELD);
+        generator.writeArray(documentClasses, 0, documentClassCount);
+      }
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void startObject() {
+    try {
+      generator.writeStartObject();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void startObject(String className) {
+    try {
+      generator.writeStartObject();
+      generator.writeFieldName(CLASS_FIELD);
+      generator.writeString(className);
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void startObject(SerializableString className, int classId) {
+    try {
+      generator.writeStartObject();
+      generator.writeFieldName(CLASS_FIELD);
+      if (classTable == null) {
+        generator.writeString(className);
+      } else {
+        generator.writeNumber(documentId(classId));
+      }
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  private int documentId(int classId) {
+    int documentId = documentIds[classId] - 1;
+    if (documentId < 0) {
+      documentId = documentClassCount++;
+      documentIds[classId] = documentId + 1;
+      documentClasses[documentId] = classTable[classId];
+    }
+    return documentId;
+  }
+
+  @Override
+  public void endObject() {
+    try {
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void name(String fieldName) {
+    try {
+      generator.writeFieldName(fieldName);
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void name(SerializableString fieldName) {
+    try {
+      generator.writeFieldName(fieldName);
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void valueString(String value) {
+    try {
+      generator.writeString(value);
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void valueLong(long value) {
+    try {
+      generator.writeNumber(value);
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void valueDouble(double value) {
+    try {
+      generator.writeNumber(value);
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void valueBoolean(boolean value) {
+    try {
+      generator.writeBoolean(value);
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void valueBigDecimal(BigDecimal value) {
+    // Emitted as a JSON string: the JS consumer would otherwise lose precision
+    // parsing it as a Number (e.g. 1.0 -> 1).
+    try {
+      generator.writeString(value.toString());
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void valueNull() {
+    try {
+      generator.writeNull();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void startArray() {
+    try {
+      generator.writeStartArray();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void endArray() {
+    try {
+      generator.writeEndArray();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void flush() {
+    try {
+      generator.flush();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      generator.close();
+    } catch (IOException e) {
+      throw failure(e);
+    }
+  }
+
+  @Override
+  public AstProfile profile() {
+    return profile;
+  }
+
+  @Override
+  public boolean packedLocations() {
+    return packedLocations;
+  }
+
+  private static UncheckedIOException failure(IOException e) {
+    return new UncheckedIOException("Failed to write AST", e);
+  }
+}
@@ -0,0 +1,55 @@
+package net.dangmai.serializer.sink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonFactoryBuilder;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.TSFBuilder;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * The Jackson factories behind the {@link JacksonAstSink} backends and the
+ * newline-delimited {@link net.dangmai.serializer.Frames}, configured alike:
+ *
+ * <ul>
+ *   <li>AUTO_CLOSE_TARGET is disabled so closing or flushing a generator never
+ *       closes the caller's stream, e.g. the CLI's System.out or the stream
+ *       frames are written to.
+ *   <li>AUTO_CLOSE_CONTENT is disabled so that if serializing fails partway,
+ *       closing the generator leaves the output truncated instead of closing
+ *       its objects into a document or frame that looks complete but is
+ *       missing part of the AST.
+ *   <li>Closing a generator or parser returns its buffers to a pool shared by
+ *       all threads rather than Jackson's default thread-local one: the HTTP
+ *       server can run each request on a new virtual thread, which would never
+ *       get to reuse buffers it pooled.
+ * </ul>
+ */
+public final class JacksonFactories {
+
+  /** For JSON ASTs, frames and the server's requests. */
+  public static final JsonFactory JSON = configure(new JsonFactoryBuilder());
+
+  /**
+   * For Smile ASTs. Shared string values are off by default in Smile; they
+   * are what deduplicates the repeated {@code @class} names.
+   */
+  static final SmileFactory SMILE = configure(
+    SmileFactory.builder().enable(
+      SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES
+    )
+  );
+
+  private JacksonFactories() {}
+
+  private static <
+    F extends JsonFactory, B extends TSFBuilder<F, B>
+  > F configure(B builder) {
+    return builder
+      .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+      .disable(StreamWriteFeature.AUTO_CLOSE_CONTENT)
+      .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+      .build();
+  }
+}
@@ -1,11 +1,11 @@
 package net.dangmai.serializer.sink;
 
-import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.math.BigDecimal;
 
 /**
  * JSON backend for {@link AstSink}, built on Jackson Core's streaming
@@ -15,125 +15,102 @@ import java.math.BigDecimal;
  * {@link AstSink} for the shapes. The {@code @class} discriminator is written as
  * the first field of each classed object.
  */
-public final class JsonAstSink implements AstSink {
-
-  private static final String CLASS_FIELD = "@class";
-
-  // AUTO_CLOSE_TARGET is disabled so closing/flushing the generator never closes
-  // the caller's Writer — the long-running server reuses a single StringWriter.
-  private static final JsonFactory FACTORY = new JsonFactory()
-    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
-
-  private final JsonGenerator generator;
-
-  public JsonAstSink(Writer writer, boolean prettyPrint) {
-    try {
-      this.generator = FACTORY.createGenerator(writer);
-    } catch (IOException e) {
-      throw new UncheckedIOException("Failed to create JSON generator", e);
-    }
+public final class JsonAstSink extends JacksonAstSink {
+
+  private final boolean callerOwned;
+
+  /**
+   * Writes UTF-8 JSON straight to {@code outputStream}. Preferred over the
+   * {@link Writer} constructors when the output ends up as bytes anyway: Jackson
+   * encodes directly into its byte buffer, with no separate char-to-byte pass.
+   *
+   * @param classTable the class table to write {@code @class} values as indexes
+   *     into (the class dictionary), or {@code null} to write class names
+   */
+  public JsonAstSink(
+    OutputStream outputStream,
+    boolean prettyPrint,
+    String[] classTable
+  ) {
+    this(outputStream, prettyPrint, classTable, AstProfile.FULL, false);
+  }
+
+  /**
+   * @param classTable the class table to write {@code @class} values as indexes
+   *     into (the class dictionary), or {@code null} to write class names
+   * @param profile which fields the serializer writes
+   * @param packedLocations write locations as packed arrays
+   */
+  public JsonAstSink(
+    OutputStream outputStream,
+    boolean prettyPrint,
+    String[] classTable,
+    AstProfile profile,
+    boolean packedLocations
+  ) {
+    super(
+      createGenerator(outputStream),
+      classTable,
+      profile,
+      packedLocations
+    );
+    callerOwned = false;
     if (prettyPrint) {
       generator.useDefaultPrettyPrinter();
     }
   }
 
-  @Override
-  public void startDocument(String rootClassName) {
-    run(() -> {
-      generator.writeStartObject();
-      generator.writeFieldName(rootClassName);
-      generator.writeStartObject();
-    });
-  }
-
-  @Override
-  public void endDocument() {
-    run(() -> {
-      generator.writeEndObject();
-      generator.writeEndObject();
-    });
-  }
-
-  @Override
-  public void startObject() {
-    run(generator::writeStartObject);
-  }
-
-  @Override
-  public void startObject(String className) {
-    run(() -> {
-      generator.writeStartObject();
-      generator.writeStringField(CLASS_FIELD, className);
-    });
-  }
-
-  @Override
-  public void endObject() {
-    run(generator::writeEndObject);
-  }
-
-  @Override
-  public void name(String fieldName) {
-    run(() -> generator.writeFieldName(fieldName));
-  }
-
-  @Override
-  public void valueString(String value) {
-    run(() -> generator.writeString(value));
-  }
-
-  @Override
-  public void valueLong(long value) {
-    run(() -> generator.writeNumber(value));
-  }
-
-  @Override
-  public void valueDouble(double value) {
-    run(() -> generator.writeNumber(value));
-  }
-
-  @Override
-  public void valueBoolean(boolean value) {
-    run(() -> generator.writeBoolean(value));
-  }
-
-  @Override
-  public void valueBigDecimal(BigDecimal value) {
-    // Emitted as a JSON string: the JS consumer would otherwise lose precision
-    // parsing it as a Number (e.g. 1.0 -> 1).
-    run(() -> generator.writeString(value.toString()));
-  }
-
-  @Override
-  public void valueNull() {
-    run(generator::writeNull);
+  public JsonAstSink(Writer writer, boolean prettyPrint) {
+    this(writer, prettyPrint, null);
   }
 
-  @Override
-  public void startArray() {
-    run(generator::writeStartArray);
+  /**
+   * @param classTable the class table to write {@code @class} values as indexes
+   *     into (the class dictionary), or {@code null} to write class names
+   */
+  public JsonAstSink(Writer writer, boolean prettyPrint, String[] classTable) {
+    super(createGenerator(writer), classTable, AstProfile.FULL, false);
+    callerOwned = false;
+    if (prettyPrint) {
+      generator.useDefaultPrettyPrinter();
+    }
   }
 
-  @Override
-  public void endArray() {
-    run(generator::writeEndArray);
+  /**
+   * Writes into a caller-owned generator, e.g. to embed the AST as a field value
+   * of an enclosing document. The caller is responsible for flushing/closing it.
+   * Closing this sink only flushes the generator.
+   */
+  public JsonAstSink(JsonGenerator generator) {
+    super(generator, null, AstProfile.FULL, false);
+    callerOwned = true;
   }
 
   @Override
-  public void flush() {
-    run(generator::flush);
+  public void close() {
+    if (callerOwned) {
+      flush();
+    } else {
+      super.close();
+    }
   }
 
-  @FunctionalInterface
-  private interface JsonOp {
-    void run() throws IOException;
+  private static JsonGenerator createGenerator(OutputStream outputStream) {
+    try {
+      return JacksonFactories.JSON.createGenerator(
+        outputStream,
+        JsonEncoding.UTF8
+      );
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to create JSON generator", e);
+    }
   }
 
-  private static void run(JsonOp op) {
+  private static JsonGenerator createGenerator(Writer writer) {
     try {
-      op.run();
+      return JacksonFactories.JSON.createGenerator(writer);
     } catch (IOException e) {
-      throw new UncheckedIOException("Failed to write JSON", e);
+      throw new UncheckedIOException("Failed to create JSON generator", e);
     }
   }
 }
@@ -0,0 +1,288 @@
+package net.dangmai.serializer.sink;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wraps another {@link AstSink}, writing each repeat of a leaf node as a
+ * back-reference: {@code {"@ref": n}}, where {@code n} counts the distinct
+ * leaf nodes written in full before it, from 0.
+ *
+ * <p>A leaf node is a classed node with no objects nested in it, such as an
+ * enum value, a boxed scalar or a location; arrays of scalars don't count as
+ * nesting, so a node whose only non-scalar field is a packed location is a
+ * leaf too. The sink holds back each classed node's calls until it either
+ * starts a nested object, at which point they are passed on as they were, or
+ * ends, at which point the node is looked up by its content.
+ */
+public final class ReferencingAstSink implements AstSink {
+
+  private static final SerializableString REF_FIELD = new SerializedString(
+    "@ref"
+  );
+
+  private enum Event {
+    START_CLASSED,
+    START_CLASSED_ID,
+    NAME,
+    NAME_ENCODED,
+    STRING,
+    LONG,
+    DOUBLE,
+    BOOLEAN,
+    BIG_DECIMAL,
+    NULL,
+    START_ARRAY,
+    END_ARRAY,
+  }
+
+  private final AstSink delegate;
+  private final Map<String, Integer> leafIds = new HashMap<>();
+  // The calls held back for the classed node being written, while it may
+  // still turn out to be a leaf, and the content key they add up to.
+  private boolean holding;
+  private Event[] events = new Event[16];
+  private Object[] values = new Object[16];
+  private long[] longs = new long[16];
+  private int eventCount;
+  private final StringBuilder key = new StringBuilder();
+
+  public ReferencingAstSink(AstSink delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void startDocument(String rootClassName) {
+    delegate.startDocument(rootClassName);
+  }
+
+  @Override
+  public void endDocument() {
+    delegate.endDocument();
+  }
+
+  @Override
+  public void startObject() {
+    release();
+    delegate.startObject();
+  }
+
+  @Override
+  public void startObject(String className) {
+    release();
+    hold(Event.START_CLASSED, className, 0);
+    key.append(className);
+  }
+
+  @Override
+  public void startObject(SerializableString className, int classId) {
+    release();
+    hold(Event.START_CLASSED_ID, className, classId);
+    key.append(className.getValue());
+  }
+
+  @Override
+  public void endObject() {
+    if (!holding) {
+      delegate.endObject();
+      return;
+    }
+    holding = false;
+    String leaf = key.toString();
+    Integer id = leafIds.get(leaf);
+    if (id != null) {
+      Arrays.fill(values, 0, eventCount, null);
+      eventCount = 0;
+      delegate.startObject();
+      delegate.name(REF_FIELD);
+      delegate.valueLong(id);
+      delegate.endObject();
+      return;
+    }
+    leafIds.put(leaf, leafIds.size());
+    replay();
+    delegate.endObject();
+  }
+
+  @Override
+  public void name(String fieldName) {
+    if (holding) {
+      hold(Event.NAME, fieldName, 0);
+      appendString(fieldName);
+    } else {
+      delegate.name(fieldName);
+    }
+  }
+
+  @Override
+  public void name(SerializableString fieldName) {
+    if (holding) {
+      hold(Event.NAME_ENCODED, fieldName, 0);
+      appendString(fieldName.getValue());
+    } else {
+      delegate.name(fieldName);
+    }
+  }
+
+  @Override
+  public void valueString(String value) {
+    if (holding) {
+      hold(Event.STRING, value, 0);
+      appendString(value);
+    } else {
+      delegate.valueString(value);
+    }
+  }
+
+  @Override
+  public void valueLong(long value) {
+    if (holding) {
+      hold(Event.LONG, null, value);
+      key.append('L').append(value);
+    } else {
+      delegate.valueLong(value);
+    }
+  }
+
+  @Override
+  public void valueDouble(double value) {
+    if (holding) {
+      hold(Event.DOUBLE, null, Double.doubleToRawLongBits(value));
+      key.append('D').append(value);
+    } else {
+      delegate.valueDouble(value);
+    }
+  }
+
+  @Override
+  public void valueBoolean(boolean value) {
+    if (holding) {
+      hold(Event.BOOLEAN, null, value ? 1 : 0);
+      key.append(value ? 'T' : 'F');
+    } else {
+      delegate.valueBoolean(value);
+    }
+  }
+
+  @Override
+  public void valueBigDecimal(BigDecimal value) {
+    if (holding) {
+      hold(Event.BIG_DECIMAL, value, 0);
+      key.append('B');
+      appendString(value.toString());
+    } else {
+      delegate.valueBigDecimal(value);
+    }
+  }
+
+  @Override
+  public void valueNull() {
+    if (holding) {
+      hold(Event.NULL, null, 0);
+      key.append('N');
+    } else {
+      delegate.valueNull();
+    }
+  }
+
+  @Override
+  public void startArray() {
+    if (holding) {
+      hold(Event.START_ARRAY, null, 0);
+      key.append('[');
+    } else {
+      delegate.startArray();
+    }
+  }
+
+  @Override
+  public void endArray() {
+    if (holding) {
+      hold(Event.END_ARRAY, null, 0);
+      key.append(']');
+    } else {
+      delegate.endArray();
+    }
+  }
+
+  @Override
+  public void flush() {
+    delegate.flush();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+  @Override
+  public AstProfile profile() {
+    return delegate.profile();
+  }
+
+  @Override
+  public boolean packedLocations() {
+    return delegate.packedLocations();
+  }
+
+  private void hold(Event event, Object value, long longValue) {
+    if (event == Event.START_CLASSED || event == Event.START_CLASSED_ID) {
+      holding = true;
+      eventCount = 0;
+      key.setLength(0);
+    }
+    if (eventCount == events.length) {
+      events = Arrays.copyOf(events, eventCount * 2);
+      values = Arrays.copyOf(values, eventCount * 2);
+      longs = Arrays.copyOf(longs, eventCount * 2);
+    }
+    events[eventCount] = event;
+    values[eventCount] = value;
+    longs[eventCount] = longValue;
+    eventCount++;
+  }
+
+  // Length-prefixed, so that no string can run into the next part of the key.
+  private void appendString(String value) {
+    key.append('S').append(value.length()).append(':').append(value);
+  }
+
+  /** Passes on the held calls: a node with a nested object isn't a leaf. */
+  private void release() {
+    if (holding) {
+      holding = false;
+      replay();
+    }
+  }
+
+  private void replay() {
+    for (int i = 0; i < eventCount; i++) {
+      Object value = values[i];
+      values[i] = null;
+      switch (events[i]) {
+        case START_CLASSED -> delegate.startObject((String) value);
+        case START_CLASSED_ID -> delegate.startObject(
+          (SerializableString) value,
+          (int) longs[i]
+        );
+        case NAME -> delegate.name((String) value);
+        case NAME_ENCODED -> delegate.name((SerializableString) value);
+        case STRING -> delegate.valueString((String) value);
+        case LONG -> delegate.valueLong(longs[i]);
+        case DOUBLE -> delegate.valueDouble(
+          Double.longBitsToDouble(longs[i])
+        );
+        case BOOLEAN -> delegate.valueBoolean(longs[i] != 0);
+        case BIG_DECIMAL -> delegate.valueBigDecimal((BigDecimal) value);
+        case NULL -> delegate.valueNull();
+        case START_ARRAY -> delegate.startArray();
+        case END_ARRAY -> delegate.endArray();
+      }
+    }
+    eventCount = 0;
+  }
+}
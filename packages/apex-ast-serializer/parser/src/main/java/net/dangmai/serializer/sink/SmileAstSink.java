@@ -0,0 +1,59 @@
+package net.dangmai.serializer.sink;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Binary backend for {@link AstSink}, encoding the same structure as
+ * {@link JsonAstSink} in <a href="https://github.com/FasterXML/smile-format-specification">Smile</a>,
+ * Jackson's binary JSON format.
+ *
+ * <p>Smile back-references field names and short string values it has already
+ * written, so the field keys and {@code @class} names that dominate a JSON AST
+ * are each encoded in full only once per document. Decoding a Smile payload
+ * yields exactly the tree the JSON backend would have produced.
+ */
+public final class SmileAstSink extends JacksonAstSink {
+
+  public SmileAstSink(OutputStream outputStream) {
+    this(outputStream, null);
+  }
+
+  /**
+   * @param classTable the class table to write {@code @class} values as indexes
+   *     into (the class dictionary), or {@code null} to write class names
+   */
+  public SmileAstSink(OutputStream outputStream, String[] classTable) {
+    this(outputStream, classTable, AstProfile.FULL, false);
+  }
+
+  /**
+   * @param classTable the class table to write {@code @class} values as indexes
+   *     into (the class dictionary), or {@code null} to write class names
+   * @param profile which fields the serializer writes
+   * @param packedLocations write locations as packed arrays
+   */
+  public SmileAstSink(
+    OutputStream outputStream,
+    String[] classTable,
+    AstProfile profile,
+    boolean packedLocations
+  ) {
+    super(
+      createGenerator(outputStream),
+      classTable,
+      profile,
+      packedLocations
+    );
+  }
+
+  private static JsonGenerator createGenerator(OutputStream outputStream) {
+    try {
+      return JacksonFactories.SMILE.createGenerator(outputStream);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to create Smile generator", e);
+    }
+  }
+}
@@ -2,9 +2,25 @@ package net.dangmai.serializer;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
 
 public class CliTest {
 
@@ -102,21 +118,465 @@ public class CliTest {
   }
 
   @Test
-  void shouldWritePerfTimingsWhenConfigured() throws Exception {
-    File perfFile = File.createTempFile("apex-perf", ".json");
-    perfFile.deleteOnExit();
+  void shouldReportPerfStatsOnStderr() throws Exception {
     File apexFile = TestUtilities.getApexTestFiles().get(0);
-    System.setProperty("apexPerfFile", perfFile.getAbsolutePath());
+    ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    PrintStream oldErr = System.err;
+    System.setErr(new PrintStream(stderr, true, StandardCharsets.UTF_8));
     try {
+      byteArrayOutputStream = new ByteArrayOutputStream();
+      runCli(
+        null,
+        new String[] { "-l", apexFile.getAbsolutePath(), "--perf-stats" }
+      );
+    } finally {
+      System.setErr(oldErr);
+    }
+
+    assertTrue(TestUtilities.isJSONValid(byteArrayOutputStream.toString()));
+    JsonNode stats = new ObjectMapper().readTree(
+      stderr.toString(StandardCharsets.UTF_8)
+    );
+    assertTrue(stats.get("parseNs").asLong() > 0, stats::toString);
+    assertTrue(stats.get("serializeNs").asLong() > 0, stats::toString);
+    // PerfStats leaves allocatedBytes out where the JVM can't measure
+    // per-thread allocation.
+    if (
+      ManagementFactory.getThreadMXBean() instanceof
+        com.sun.management.ThreadMXBean threads &&
+      threads.isThreadAllocatedMemorySupported() &&
+      threads.isThreadAllocatedMemoryEnabled()
+    ) {
+      assertTrue(stats.get("allocatedBytes").asLong() > 0, stats::toString);
+    } else {
+      assertFalse(stats.has("allocatedBytes"), stats::toString);
+    }
+  }
+
+  @Test
+  void shouldAddPerfStatsToBatchResponses() throws Exception {
+    String request = "{\"id\": \"a\", \"sourceCode\": \"class A {}\"}\n";
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    runCli(
+      new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)),
+      new String[] { "-b", "--perf-stats" }
+    );
+
+    JsonNode frame = new ObjectMapper().readTree(
+      byteArrayOutputStream.toString(StandardCharsets.UTF_8)
+    );
+    assertTrue(frame.has("ast"));
+    assertTrue(frame.get("stats").get("parseNs").asLong() > 0);
+    assertTrue(frame.get("stats").has("serializeNs"));
+  }
+
+  @Test
+  void shouldServeMultipleRequestsInBatchMode() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    File apexFile = TestUtilities.getApexTestFiles().get(0);
+    String sourceCode = java.nio.file.Files.readString(apexFile.toPath());
+    String input =
+      mapper.writeValueAsString(
+        Map.of("id", "first", "sourceCode", sourceCode)
+      ) +
+      "\n" +
+      "not json\n" +
+      "{\"id\": \"nested\", \"sourceCode\": {\"sourceCode\": \"class A {}\"}}\n" +
+      mapper.writeValueAsString(
+        Map.of("id", "second", "sourceCode", "Integer x = 1;", "anonymous", true)
+      ) +
+      "\n";
+
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    runCli(
+      new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+      new String[] { "-b" }
+    );
+
+    String[] lines = byteArrayOutputStream
+      .toString(StandardCharsets.UTF_8)
+      .split("\n");
+    assertEquals(4, lines.length, "There should be one response per request");
+    JsonNode first = mapper.readTree(lines[0]);
+    assertEquals("first", first.get("id").asText());
+    assertTrue(
+      first.get("ast").has("apex.jorje.semantic.compiler.parser.ParserOutput"),
+      "The AST should be embedded in the response frame"
+    );
+    JsonNode malformed = mapper.readTree(lines[1]);
+    assertTrue(malformed.get("id").isNull());
+    assertTrue(malformed.has("error"), "A bad request should yield an error");
+    JsonNode nested = mapper.readTree(lines[2]);
+    assertTrue(nested.has("error"), "A non-string source should be missing");
+    JsonNode second = mapper.readTree(lines[3]);
+    assertEquals("second", second.get("id").asText());
+    assertTrue(second.has("ast"), "The session should continue after errors");
+  }
+
+  @Test
+  void shouldRejectOptionsTheModeWouldIgnore() throws Exception {
+    File apexFile = TestUtilities.getApexTestFiles().get(0);
+    String location = apexFile.getAbsolutePath();
+    String directory = apexFile.getParent();
+    List<String[]> invocations = List.of(
+      new String[] { "-b", "--references" },
+      new String[] { "-b", "-c", directory },
+      new String[] { "-l", location, location, "-f", "smile" },
+      new String[] { "-l", directory, "--packed-locations" },
+      new String[] { "-l", directory, "-o", directory, "-c", directory }
+    );
+    for (String[] params : invocations) {
+      byteArrayOutputStream = new ByteArrayOutputStream();
+      assertThrows(
+        org.apache.commons.cli.ParseException.class,
+        () -> runCli(null, params),
+        () -> String.join(" ", params)
+      );
+    }
+  }
+
+  @Test
+  void shouldStreamFramesForEveryFileInDirectory() throws Exception {
+    File directory = TestUtilities.getApexTestFiles().get(0).getParentFile();
+    long sourceCount;
+    try (Stream<Path> files = Files.walk(directory.toPath())) {
+      sourceCount = files
+        .map(file -> file.getFileName().toString())
+        .filter(
+          name ->
+            name.endsWith(".cls") ||
+            name.endsWith(".trigger") ||
+            name.endsWith(".apex")
+        )
+        .count();
+    }
+
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    runCli(null, new String[] { "-l", directory.getAbsolutePath() });
+
+    ObjectMapper mapper = new ObjectMapper();
+    String[] lines = byteArrayOutputStream
+      .toString(StandardCharsets.UTF_8)
+      .split("\n");
+    assertEquals(sourceCount, lines.length, "There should be one frame per file");
+    for (String line : lines) {
+      JsonNode frame = mapper.readTree(line);
+      assertTrue(frame.has("ast"), () -> "Frame should hold an AST: " + line);
+    }
+  }
+
+  @Test
+  void shouldParseInParallelAsEachFileParsesOnItsOwn() throws Exception {
+    // The whole corpus, so the pool's threads share jorje's engines for long
+    // enough to catch a parse that isn't thread-safe.
+    File corpus = TestUtilities.getApexTestFiles()
+      .get(0)
+      .getParentFile()
+      .getParentFile();
+
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    runCli(null, new String[] { "-l", corpus.getAbsolutePath() });
+
+    ObjectMapper mapper = new ObjectMapper();
+    String[] lines = byteArrayOutputStream
+      .toString(StandardCharsets.UTF_8)
+      .split("\n");
+    assertTrue(lines.length > 1, "The corpus should have many files");
+    for (String line : lines) {
+      JsonNode frame = mapper.readTree(line);
+      Path file = Path.of(frame.get("id").asText());
+      assertTrue(frame.has("ast"), () -> "Frame should hold an AST: " + line);
+
+      ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+      Apex.getAST(
+        file.toString().endsWith(".apex"),
+        OutputOptions.DEFAULT,
+        file,
+        sequential
+      );
+      assertEquals(
+        mapper.readTree(sequential.toByteArray()),
+        frame.get("ast"),
+        file::toString
+      );
+    }
+  }
+
+  @Test
+  void shouldWriteOneOutputPerFileToOutputDirectory() throws Exception {
+    File first = TestUtilities.getApexTestFiles().get(0);
+    File second = TestUtilities.getApexTestFiles().get(1);
+    Path outputDir = Files.createTempDirectory("apex-ast");
+
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    runCli(
+      null,
+      new String[] {
+        "-l",
+        first.getAbsolutePath(),
+        second.getAbsolutePath(),
+        "-o",
+        outputDir.toString(),
+      }
+    );
+
+    for (File file : List.of(first, second)) {
+      Path output = outputDir.resolve(file.getName() + ".json");
+      assertTrue(Files.exists(output), () -> "Missing output for " + file);
+      assertTrue(
+        TestUtilities.isJSONValid(Files.readString(output)),
+        "Content should be valid JSON"
+      );
+    }
+    try (Stream<Path> files = Files.list(outputDir)) {
+      assertEquals(2, files.count(), "No temporary files should be left");
+    }
+  }
+
+  /** A set of output options, and whether it should shrink the output. */
+  private record Encoding(List<String> options, boolean smaller) {
+    @Override
+    public String toString() {
+      return String.join(" ", options);
+    }
+  }
+
+  static Stream<Encoding> encodings() {
+    return Stream.of(
+      new Encoding(List.of("-f", "smile"), true),
+      new Encoding(List.of("-d"), true),
+      new Encoding(List.of("--profile", "printer"), true),
+      new Encoding(List.of("--packed-locations"), true),
+      // The leaf nodes worth referring back to depend on the source.
+      new Encoding(List.of("--references"), false),
+      new Encoding(
+        List.of("--profile", "printer", "--packed-locations", "--references"),
+        true
+      ),
+      new Encoding(
+        List.of(
+          "-f",
+          "smile",
+          "-d",
+          "--profile",
+          "printer",
+          "--packed-locations",
+          "--references"
+        ),
+        true
+      )
+    );
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("encodings")
+  void shouldWriteOutputThatDecodesToTheFullJson(Encoding encoding)
+    throws Exception {
+    ObjectMapper mapper = encoding.options().contains("smile")
+      ? new ObjectMapper(new SmileFactory())
+      : new ObjectMapper();
+    long fullSize = 0;
+    long encodedSize = 0;
+    for (File apexFile : TestUtilities.getApexTestFiles()) {
       byteArrayOutputStream = new ByteArrayOutputStream();
       runCli(null, new String[] { "-l", apexFile.getAbsolutePath() });
+      JsonNode full = new ObjectMapper().readTree(
+        byteArrayOutputStream.toByteArray()
+      );
+      fullSize += byteArrayOutputStream.size();
 
-      String timing = java.nio.file.Files.readString(perfFile.toPath());
-      assertTrue(timing.contains("parseNs"), "should record parseNs");
-      assertTrue(timing.contains("serializeNs"), "should record serializeNs");
-    } finally {
-      System.clearProperty("apexPerfFile");
+      List<String> params = new ArrayList<>(encoding.options());
+      params.addAll(List.of("-l", apexFile.getAbsolutePath()));
+      byteArrayOutputStream = new ByteArrayOutputStream();
+      runCli(null, params.toArray(new String[0]));
+      encodedSize += byteArrayOutputStream.size();
+
+      // Undone in the order the plugin does: references are resolved while
+      // the locations are still packed, as leaf nodes are found that way.
+      ObjectNode decoded = (ObjectNode) mapper.readTree(
+        byteArrayOutputStream.toByteArray()
+      );
+      JsonNode classes = decoded.remove("@classes");
+      if (classes != null) {
+        resolveClasses(decoded, classes);
+      }
+      JsonNode resolved = unpackLocations(
+        resolveReferences(decoded, new ArrayList<>())
+      );
+      if (encoding.options().contains("printer")) {
+        assertProjection(full, resolved);
+      } else {
+        assertEquals(full, resolved, apexFile.getName());
+      }
+    }
+    if (encoding.smaller()) {
+      assertTrue(encodedSize < fullSize, "The output should be smaller");
+    }
+  }
+
+  @Test
+  void shouldReuseCachedOutput() throws Exception {
+    File apexFile = TestUtilities.getApexTestFiles().get(0);
+    Path cacheDir = Files.createTempDirectory("apex-ast-cache");
+    String[] params = new String[] {
+      "-c",
+      cacheDir.toString(),
+      "-l",
+      apexFile.getAbsolutePath(),
+    };
+
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    runCli(null, params);
+    Path entry;
+    try (Stream<Path> entries = Files.list(cacheDir)) {
+      List<Path> files = entries.toList();
+      assertEquals(1, files.size(), "There should be one cache entry");
+      entry = files.get(0);
+    }
+    assertArrayEquals(byteArrayOutputStream.toByteArray(), Files.readAllBytes(entry));
+
+    // Tamper with the entry to prove the second run is served from it.
+    Files.writeString(entry, "{\"cached\":true}");
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    runCli(null, params);
+    assertEquals("{\"cached\":true}", byteArrayOutputStream.toString());
+  }
+
+  @Test
+  void shouldGetTheSameAstFromStringPathAndReader() throws Exception {
+    File file = TestUtilities.getApexTestFile("AnnotatedClass.cls");
+    String sourceCode = Files.readString(file.toPath());
+
+    ByteArrayOutputStream fromReader = new ByteArrayOutputStream();
+    Apex.getAST(
+      false,
+      OutputOptions.DEFAULT,
+      new StringReader(sourceCode),
+      fromReader
+    );
+    ByteArrayOutputStream fromString = new ByteArrayOutputStream();
+    Apex.getAST(false, OutputOptions.DEFAULT, sourceCode, fromString);
+    ByteArrayOutputStream fromPath = new ByteArrayOutputStream();
+    Apex.getAST(false, OutputOptions.DEFAULT, file.toPath(), fromPath);
+
+    assertArrayEquals(fromReader.toByteArray(), fromString.toByteArray());
+    assertArrayEquals(fromReader.toByteArray(), fromPath.toByteArray());
+  }
+
+  /**
+   * Asserts that {@code printer} is {@code full} without some of its scalar
+   * and enum fields, internalErrors and every location's column: fields that
+   * can hold nodes must all be kept.
+   */
+  private static void assertProjection(JsonNode full, JsonNode printer) {
+    assertEquals(full.getNodeType(), printer.getNodeType());
+    if (full.isValueNode()) {
+      assertEquals(full, printer);
+      return;
+    }
+    if (full.isArray()) {
+      assertEquals(full.size(), printer.size());
+      for (int i = 0; i < full.size(); i++) {
+        assertProjection(full.get(i), printer.get(i));
+      }
+      return;
+    }
+    if ("apex.jorje.data.IndexLocation".equals(full.path("@class").asText())) {
+      assertFalse(printer.has("column"), "Locations should have no column");
+    }
+    printer
+      .fieldNames()
+      .forEachRemaining(name ->
+        assertTrue(full.has(name), "Unexpected field " + name)
+      );
+    full
+      .fields()
+      .forEachRemaining(field -> {
+        JsonNode value = field.getValue();
+        if (printer.has(field.getKey())) {
+          assertProjection(value, printer.get(field.getKey()));
+        } else {
+          boolean enumValue = value.size() == 2 && value.has("$");
+          assertTrue(
+            value.isValueNode() ||
+            enumValue ||
+            field.getKey().equals("internalErrors"),
+            "Field " + field.getKey() + " can hold nodes"
+          );
+        }
+      });
+  }
+
+  /** Returns {@code node} with every packed location expanded again. */
+  private static JsonNode unpackLocations(JsonNode node) {
+    if (node instanceof ArrayNode array && array.path(0).isNumber()) {
+      ObjectNode location = JsonNodeFactory.instance.objectNode();
+      location.put("@class", "apex.jorje.data.IndexLocation");
+      List<String> fields = List.of("startIndex", "endIndex", "line", "column");
+      for (int i = 0; i < array.size(); i++) {
+        location.set(fields.get(i), array.get(i));
+      }
+      return location;
+    }
+    if (node instanceof ObjectNode object) {
+      object
+        .fields()
+        .forEachRemaining(field ->
+          field.setValue(unpackLocations(field.getValue()))
+        );
+    } else if (node instanceof ArrayNode array) {
+      for (int i = 0; i < array.size(); i++) {
+        array.set(i, unpackLocations(array.get(i)));
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Returns {@code node} with every {@code @ref} replaced by a copy of the leaf
+   * node it refers to, collecting the leaf nodes in {@code leaves}.
+   */
+  private static JsonNode resolveReferences(
+    JsonNode node,
+    List<JsonNode> leaves
+  ) {
+    if (node.has("@ref")) {
+      return leaves.get(node.get("@ref").asInt()).deepCopy();
+    }
+    if (node.has("@class") && !hasNestedObject(node)) {
+      leaves.add(node);
+    } else if (node instanceof ObjectNode object) {
+      object
+        .fields()
+        .forEachRemaining(field ->
+          field.setValue(resolveReferences(field.getValue(), leaves))
+        );
+    } else if (node instanceof ArrayNode array) {
+      for (int i = 0; i < array.size(); i++) {
+        array.set(i, resolveReferences(array.get(i), leaves));
+      }
+    }
+    return node;
+  }
+
+  private static boolean hasNestedObject(JsonNode node) {
+    for (JsonNode value : node) {
+      if (value.isObject() || (value.isArray() && hasNestedObject(value))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Replaces every numeric {@code @class} with its entry in {@code classes}. */
+  private static void resolveClasses(JsonNode node, JsonNode classes) {
+    if (node instanceof ObjectNode object) {
+      JsonNode classId = object.get("@class");
+      if (classId != null && classId.isInt()) {
+        object.put("@class", classes.get(classId.intValue()).textValue());
+      }
     }
+    node.forEach(child -> resolveClasses(child, classes));
   }
 
   private void runCli(final InputStream inputStream, final String[] params)
@@ -0,0 +1,87 @@
+package net.dangmai.serializer.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DiskCacheTest {
+
+  @TempDir
+  Path directory;
+
+  private static void put(DiskCache cache, String key, byte[] payload)
+    throws IOException {
+    try (DiskCache.Entry entry = cache.newEntry(key)) {
+      entry.write(payload);
+      entry.commit();
+    }
+  }
+
+  private static byte[] get(DiskCache cache, String key) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    return cache.copyTo(key, outputStream) ? outputStream.toByteArray() : null;
+  }
+
+  private long fileCount() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  void readsBackCommittedEntries() throws IOException {
+    DiskCache cache = new DiskCache(directory, 1024);
+    assertNull(get(cache, "a"));
+    put(cache, "a", new byte[] { 1, 2, 3 });
+    assertArrayEquals(new byte[] { 1, 2, 3 }, get(cache, "a"));
+  }
+
+  @Test
+  void discardsUncommittedEntries() throws IOException {
+    DiskCache cache = new DiskCache(directory, 1024);
+    try (DiskCache.Entry entry = cache.newEntry("a")) {
+      entry.write(new byte[] { 1, 2, 3 });
+    }
+    assertNull(get(cache, "a"));
+    assertEquals(0, fileCount(), "The temporary file should be deleted");
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedEntriesBeyondMaxBytes() throws IOException {
+    DiskCache cache = new DiskCache(directory, 10, 1);
+    put(cache, "a", new byte[4]);
+    put(cache, "b", new byte[4]);
+    // Modification times can be coarse, so age the entries explicitly rather
+    // than relying on the order they were written in.
+    Files.setLastModifiedTime(directory.resolve("a"), FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(directory.resolve("b"), FileTime.fromMillis(2000));
+    put(cache, "c", new byte[4]);
+
+    assertNull(get(cache, "a"));
+    assertNotNull(get(cache, "b"));
+    assertNotNull(get(cache, "c"));
+  }
+
+  @Test
+  void skipsEntriesThatCantBeEvicted() throws IOException {
+    DiskCache cache = new DiskCache(directory, 10, 1);
+    put(cache, "a", new byte[4]);
+    // A non-empty directory fails to delete, like a file another process has
+    // mapped does on some platforms.
+    Path stuck = Files.createDirectory(directory.resolve("stuck"));
+    Files.write(stuck.resolve("file"), new byte[1]);
+    Files.setLastModifiedTime(stuck, FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(directory.resolve("a"), FileTime.fromMillis(2000));
+
+    assertDoesNotThrow(() -> put(cache, "b", new byte[4]));
+    assertTrue(Files.exists(stuck));
+    assertNull(get(cache, "a"), "Eviction should carry on past the failure");
+  }
+}
@@ -0,0 +1,145 @@
+package net.dangmai.serializer.generated;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import apex.jorje.data.Locations;
+import apex.jorje.semantic.compiler.SourceFile;
+import apex.jorje.semantic.compiler.parser.ParserEngine;
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import net.dangmai.serializer.sink.AstSink;
+import net.dangmai.serializer.sink.JsonAstSink;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pins the generated serializer and the JSON sink to (next to) no allocation
+ * per node: once the sink and its output buffer exist, writing an AST should
+ * only produce bytes. A per-call object, such as a capturing lambda that
+ * escape analysis doesn't remove, shows up here as several times the bound.
+ * Nor should a new sink allocate a new output buffer, as long as the previous
+ * one was closed and returned its buffer to the pool.
+ */
+class GeneratedAstSerializerAllocationTest {
+
+  private static final String SOURCE = """
+    public class Accounts {
+      private static final Integer LIMIT = 200;
+      @AuraEnabled
+      public static List<Account> find(String name, Set<Id> ids) {
+        List<Account> result = new List<Account>();
+        for (Account a : [SELECT Id, Name FROM Account WHERE Id IN :ids LIMIT :LIMIT]) {
+          if (a.Name != null && a.Name.startsWith(name)) {
+            result.add(a); // keep
+          } else {
+            System.debug('skipped ' + a.Id);
+          }
+        }
+        return result;
+      }
+    }
+    """;
+
+  private static final int WARMUP_DOCUMENTS = 2_000;
+  private static final int MEASURED_DOCUMENTS = 1_000;
+  private static final long MAX_BYTES_PER_NODE = 16;
+  private static final int MEASURED_SINKS = 1_000;
+  // Well under the 8000 byte output buffer a JSON generator would otherwise
+  // allocate for itself.
+  private static final long MAX_BYTES_PER_SINK = 2_000;
+
+  @Test
+  void allocatesNextToNothingPerNode() {
+    com.sun.management.ThreadMXBean allocation = allocationBean();
+
+    ParserOutput output = parse(SOURCE);
+    long nodes = countNodes(output);
+    // One long-lived sink writing every document as another root-level value,
+    // so its generator and buffers are created once, outside the measurement.
+    long bytes;
+    OutputStream out = OutputStream.nullOutputStream();
+    try (AstSink sink = new JsonAstSink(out, false, null)) {
+      for (int i = 0; i < WARMUP_DOCUMENTS; i++) {
+        GeneratedAstSerializer.serialize(output, sink);
+      }
+
+      long startBytes = allocation.getCurrentThreadAllocatedBytes();
+      for (int i = 0; i < MEASURED_DOCUMENTS; i++) {
+        GeneratedAstSerializer.serialize(output, sink);
+      }
+      bytes = allocation.getCurrentThreadAllocatedBytes() - startBytes;
+    }
+
+    long bytesPerNode = bytes / (nodes * MEASURED_DOCUMENTS);
+    assertTrue(
+      bytesPerNode <= MAX_BYTES_PER_NODE,
+      () -> "Allocated " + bytes + " bytes for " + MEASURED_DOCUMENTS +
+        " documents of " + nodes + " nodes, " + bytesPerNode + " per node"
+    );
+  }
+
+  @Test
+  void reusesBuffersOfClosedSinks() {
+    com.sun.management.ThreadMXBean allocation = allocationBean();
+
+    ParserOutput output = parse(SOURCE);
+    // Each document gets a sink of its own, closed when it is done.
+    OutputStream out = OutputStream.nullOutputStream();
+    for (int i = 0; i < WARMUP_DOCUMENTS; i++) {
+      GeneratedAstSerializer.serialize(output, out, false);
+    }
+
+    long startBytes = allocation.getCurrentThreadAllocatedBytes();
+    for (int i = 0; i < MEASURED_SINKS; i++) {
+      GeneratedAstSerializer.serialize(output, out, false);
+    }
+    long bytes = allocation.getCurrentThreadAllocatedBytes() - startBytes;
+
+    long bytesPerSink = bytes / MEASURED_SINKS;
+    assertTrue(
+      bytesPerSink <= MAX_BYTES_PER_SINK,
+      () -> "Allocated " + bytes + " bytes for " + MEASURED_SINKS +
+        " sinks, " + bytesPerSink + " per sink"
+    );
+  }
+
+  private static com.sun.management.ThreadMXBean allocationBean() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(
+      threads instanceof com.sun.management.ThreadMXBean bean &&
+      bean.isThreadAllocatedMemorySupported() &&
+      bean.isThreadAllocatedMemoryEnabled(),
+      "The JVM can't measure per-thread allocation"
+    );
+    return (com.sun.management.ThreadMXBean) threads;
+  }
+
+  private static ParserOutput parse(String source) {
+    SourceFile sourceFile = SourceFile.builder().setBody(source).build();
+    Locations.useIndexFactory();
+    return ParserEngine.get(ParserEngine.Type.NAMED).parse(
+      sourceFile,
+      ParserEngine.HiddenTokenBehavior.COLLECT_COMMENTS,
+      ParserEngine.SoqlParserType.NEW
+    );
+  }
+
+  // The classed nodes in the serialized AST, plus its root.
+  private static long countNodes(ParserOutput output) {
+    StringWriter writer = new StringWriter();
+    GeneratedAstSerializer.serialize(output, writer, false);
+    String json = writer.toString();
+    long nodes = 1;
+    for (
+      int i = json.indexOf("\"@class\"");
+      i >= 0;
+      i = json.indexOf("\"@class\"", i + 1)
+    ) {
+      nodes++;
+    }
+    return nodes;
+  }
+}
@@ -3,8 +3,11 @@ package net.dangmai.serializer.sink;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.ByteArrayOutputStream;
 import java.io.StringWriter;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.Test;
 
@@ -60,6 +63,64 @@ class JsonAstSinkTest {
     );
   }
 
+  @Test
+  void writesClassIdsAgainstTrailingClassTable() {
+    StringWriter writer = new StringWriter();
+    AstSink sink = new JsonAstSink(
+      writer,
+      false,
+      new String[] { "apex.jorje.data.ast.ClassDecl", "boolean", "int" }
+    );
+    sink.startDocument("apex.jorje.semantic.compiler.parser.ParserOutput");
+    sink.name("unit");
+    sink.startObject(new SerializedString("int"), 2);
+    sink.name("value");
+    sink.startObject(new SerializedString("apex.jorje.data.ast.ClassDecl"), 0);
+    sink.endObject();
+    sink.name("again");
+    sink.startObject(new SerializedString("int"), 2);
+    sink.endObject();
+    sink.name("other");
+    sink.startObject("apex.jorje.data.ast.Unknown");
+    sink.endObject();
+    sink.endObject();
+    sink.endDocument();
+    sink.flush();
+    // Only the classes used are listed, in order of first use.
+    assertEquals(
+      "{\"apex.jorje.semantic.compiler.parser.ParserOutput\":{\"unit\":{\"@class\":0,"
+        + "\"value\":{\"@class\":1},\"again\":{\"@class\":0},"
+        + "\"other\":{\"@class\":\"apex.jorje.data.ast.Unknown\"}}},"
+        + "\"@classes\":[\"int\",\"apex.jorje.data.ast.ClassDecl\"]}",
+      writer.toString()
+    );
+  }
+
+  @Test
+  void writesClassNamesWithoutClassTable() {
+    String json = compact(sink -> {
+      sink.startObject(new SerializedString("int"), 1);
+      sink.endObject();
+    });
+    assertEquals("{\"@class\":\"int\"}", json);
+  }
+
+  @Test
+  void writesPreEncodedFieldNames() {
+    String json = compact(sink -> {
+      sink.startObject(new SerializedString("apex.jorje.data.ast.ClassDecl"), 0);
+      sink.name(new SerializedString("name"));
+      sink.valueString("A");
+      sink.name("plain");
+      sink.valueString("B");
+      sink.endObject();
+    });
+    assertEquals(
+      "{\"@class\":\"apex.jorje.data.ast.ClassDecl\",\"name\":\"A\",\"plain\":\"B\"}",
+      json
+    );
+  }
+
   @Test
   void writesEnumAsClassPlusDollarName() {
     String json = compact(sink -> {
@@ -177,6 +238,37 @@ class JsonAstSinkTest {
     assertEquals("{\"value\":\"line1\\n\\\"quoted\\\"\\tend\"}", json);
   }
 
+  @Test
+  void writesTheSameUtf8ToAnOutputStream() {
+    Consumer<AstSink> driver = sink -> {
+      sink.startObject("N");
+      sink.name("value");
+      sink.valueString("caf\u00e9 \u2603");
+      sink.endObject();
+    };
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    AstSink sink = new JsonAstSink(outputStream, false, null);
+    driver.accept(sink);
+    sink.flush();
+    assertEquals(
+      compact(driver),
+      outputStream.toString(StandardCharsets.UTF_8)
+    );
+  }
+
+  @Test
+  void leavesOutputCutShortWhenClosedMidDocument() {
+    StringWriter writer = new StringWriter();
+    AstSink sink = new JsonAstSink(writer, false);
+    sink.startObject("N");
+    sink.name("items");
+    sink.startArray();
+    // What a serializer that fails partway leaves behind: the sink is closed
+    // without its open array and object being ended.
+    sink.close();
+    assertEquals("{\"@class\":\"N\",\"items\":[", writer.toString());
+  }
+
   @Test
   void prettyPrintIsStructurallyEqualToCompact() {
     Consumer<AstSink> driver = sink -> {
@@ -0,0 +1,126 @@
+package net.dangmai.serializer.sink;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.StringWriter;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Drives {@link ReferencingAstSink} over a {@link JsonAstSink} to lock in which
+ * nodes it writes as references.
+ */
+class ReferencingAstSinkTest {
+
+  private static String render(Consumer<AstSink> driver) {
+    StringWriter writer = new StringWriter();
+    AstSink sink = new ReferencingAstSink(new JsonAstSink(writer, false));
+    driver.accept(sink);
+    sink.flush();
+    return writer.toString();
+  }
+
+  private static void writeEnum(AstSink sink, String name) {
+    sink.startObject(new SerializedString("apex.jorje.data.ast.BinaryOp"), 0);
+    sink.name("$");
+    sink.valueString(name);
+    sink.endObject();
+  }
+
+  @Test
+  void writesRepeatedLeafNodesAsReferences() {
+    String json = render(sink -> {
+      sink.startArray();
+      writeEnum(sink, "ADDITION");
+      writeEnum(sink, "SUBTRACTION");
+      writeEnum(sink, "ADDITION");
+      writeEnum(sink, "SUBTRACTION");
+      sink.endArray();
+    });
+    assertEquals(
+      "[{\"@class\":\"apex.jorje.data.ast.BinaryOp\",\"$\":\"ADDITION\"}," +
+      "{\"@class\":\"apex.jorje.data.ast.BinaryOp\",\"$\":\"SUBTRACTION\"}," +
+      "{\"@ref\":0},{\"@ref\":1}]",
+      json
+    );
+  }
+
+  @Test
+  void writesNodesWithNestedObjectsInFull() {
+    Consumer<AstSink> binaryExpr = sink -> {
+      sink.startObject("apex.jorje.data.ast.Expr$BinaryExpr");
+      sink.name("op");
+      writeEnum(sink, "ADDITION");
+      sink.endObject();
+    };
+    String json = render(sink -> {
+      sink.startArray();
+      binaryExpr.accept(sink);
+      binaryExpr.accept(sink);
+      sink.endArray();
+    });
+    assertEquals(
+      "[{\"@class\":\"apex.jorje.data.ast.Expr$BinaryExpr\"," +
+      "\"op\":{\"@class\":\"apex.jorje.data.ast.BinaryOp\",\"$\":\"ADDITION\"}}," +
+      "{\"@class\":\"apex.jorje.data.ast.Expr$BinaryExpr\",\"op\":{\"@ref\":0}}]",
+      json
+    );
+  }
+
+  @Test
+  void treatsArraysOfScalarsAsPartOfALeafNode() {
+    Consumer<AstSink> identifier = sink -> {
+      sink.startObject("apex.jorje.data.Identifier");
+      sink.name("loc");
+      sink.startArray();
+      sink.valueLong(0);
+      sink.valueLong(6);
+      sink.endArray();
+      sink.name("value");
+      sink.valueString("String");
+      sink.endObject();
+    };
+    String json = render(sink -> {
+      sink.startArray();
+      identifier.accept(sink);
+      identifier.accept(sink);
+      sink.endArray();
+    });
+    assertEquals(
+      "[{\"@class\":\"apex.jorje.data.Identifier\",\"loc\":[0,6]," +
+      "\"value\":\"String\"},{\"@ref\":0}]",
+      json
+    );
+  }
+
+  @Test
+  void tellsLeafNodesApartByEveryValue() {
+    String json = render(sink -> {
+      sink.startArray();
+      for (Object value : new Object[] { 1L, "1", 1.0, true, null }) {
+        sink.startObject("int");
+        sink.name("$");
+        if (value instanceof Long v) {
+          sink.valueLong(v);
+        } else if (value instanceof String v) {
+          sink.valueString(v);
+        } else if (value instanceof Double v) {
+          sink.valueDouble(v);
+        } else if (value instanceof Boolean v) {
+          sink.valueBoolean(v);
+        } else {
+          sink.valueNull();
+        }
+        sink.endObject();
+      }
+      sink.endArray();
+    });
+    assertEquals(
+      "[{\"@class\":\"int\",\"$\":1},{\"@class\":\"int\",\"$\":\"1\"}," +
+      "{\"@class\":\"int\",\"$\":1.0},{\"@class\":\"int\",\"$\":true}," +
+      "{\"@class\":\"int\",\"$\":null}]",
+      json
+    );
+  }
+}
@@ -0,0 +1,76 @@
+package net.dangmai.serializer.sink;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link SmileAstSink} encodes exactly the tree {@link JsonAstSink}
+ * writes for the same calls, so the two formats are interchangeable for a
+ * consumer.
+ */
+class SmileAstSinkTest {
+
+  private static final Consumer<AstSink> DRIVER = sink -> {
+    sink.startDocument("apex.jorje.semantic.compiler.parser.ParserOutput");
+    sink.name("members");
+    sink.startArray();
+    for (int i = 0; i < 50; i++) {
+      sink.startObject("apex.jorje.data.ast.Expr$LiteralExpr");
+      sink.name("loc");
+      sink.startObject("apex.jorje.data.IndexLocation");
+      sink.name("startIndex");
+      sink.valueLong(i);
+      sink.endObject();
+      sink.name("literal");
+      sink.startObject();
+      sink.name("value");
+      sink.valueDouble(2.5);
+      sink.endObject();
+      sink.endObject();
+    }
+    sink.endArray();
+    sink.endDocument();
+  };
+
+  private static String json() {
+    StringWriter writer = new StringWriter();
+    AstSink sink = new JsonAstSink(writer, false);
+    DRIVER.accept(sink);
+    sink.flush();
+    return writer.toString();
+  }
+
+  private static byte[] smile() {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    AstSink sink = new SmileAstSink(outputStream);
+    DRIVER.accept(sink);
+    sink.flush();
+    return outputStream.toByteArray();
+  }
+
+  @Test
+  void decodesToTheSameTreeAsJson() throws Exception {
+    JsonNode expected = new ObjectMapper().readTree(json());
+    JsonNode actual = new ObjectMapper(new SmileFactory()).readTree(smile());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  void sharesRepeatedClassNamesAndFieldNames() {
+    int jsonSize = json().length();
+    int smileSize = smile().length;
+    assertTrue(
+      smileSize * 3 < jsonSize,
+      () -> "Smile (" + smileSize + " bytes) should be much smaller than JSON (" +
+        jsonSize + " bytes)"
+    );
+  }
+}
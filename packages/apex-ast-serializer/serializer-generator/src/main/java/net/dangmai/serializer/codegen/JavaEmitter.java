@@ -1,20 +1,32 @@
 package net.dangmai.serializer.codegen;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
 
 /**
  * Emits the {@code GeneratedAstSerializer} Java source from a list of
  * {@link TypeModel}s. The runtime dispatch helpers are a fixed template; only the
- * per-type field writers and the class-name switch are generated.
+ * per-type field writers, the class table and the class-name switches are
+ * generated. Types with fields the printer profile leaves out get a second
+ * field writer without them, which the sink's {@code AstProfile} selects.
+ * Locations are flagged so that writeNode can write them packed when the sink
+ * asks for it.
  */
 final class JavaEmitter {
 
   static final String PACKAGE = "net.dangmai.serializer.generated";
   static final String CLASS_NAME = "GeneratedAstSerializer";
 
+  // The @class names writeValue gives boxed scalars (collection elements and
+  // Object-typed fields), as XStream named them.
+  private static final List<String> BOX_NAMES = List.of(
+    "big-decimal", "boolean", "byte", "char", "double", "float", "int", "long", "short", "string"
+  );
+
   private JavaEmitter() {}
 
-  static String emit(List<TypeModel> models) {
+  static String emit(List<TypeModel> models, List<String> enumClassNames) {
     // Generated field-writer method names must be unique (the . -> _ / $ -> _
     // mapping is not injective in theory). Fail loudly rather than emit a
     // duplicate-method compile error.
@@ -27,14 +39,39 @@ final class JavaEmitter {
       }
     }
 
+    // Every @class value the serializer can write, sorted so the ids are stable
+    // for a given jorje version. Sinks writing the class dictionary map these
+    // ids to the document's own @classes table.
+    TreeSet<String> classNames = new TreeSet<>(BOX_NAMES);
+    classNames.addAll(enumClassNames);
+    for (TypeModel model : models) {
+      classNames.add(model.className);
+    }
+    List<String> classTable = List.copyOf(classNames);
+
+    // Every field name the per-type writers write. Field names are the Java
+    // field names, so "F_" + name is a valid, unique constant name.
+    TreeSet<String> fieldNames = new TreeSet<>();
+    for (TypeModel model : models) {
+      for (TypeModel.FieldModel field : model.fields) {
+        fieldNames.add(field.jsonName);
+      }
+    }
+
     StringBuilder sb = new StringBuilder();
     sb.append("package ").append(PACKAGE).append(";\n\n");
     sb.append("""
+      import apex.jorje.data.Location;
+      import com.fasterxml.jackson.core.io.SerializedString;
+      import java.io.OutputStream;
       import java.io.Writer;
       import java.math.BigDecimal;
       import java.util.Collection;
+      import java.util.List;
       import java.util.Map;
       import java.util.Optional;
+      import java.util.RandomAccess;
+      import net.dangmai.serializer.sink.AstProfile;
       import net.dangmai.serializer.sink.AstSink;
       import net.dangmai.serializer.sink.JsonAstSink;
 
@@ -48,19 +85,39 @@ final class JavaEmitter {
 
         /** Serializes a parsed AST root (a ParserOutput) as the wrapper document. */
         public static void serialize(Object root, Writer writer, boolean prettyPrint) {
-          AstSink sink = new JsonAstSink(writer, prettyPrint);
-          String cn = root.getClass().getName();
-          sink.startDocument(cn);
-          writeFields(root, cn, sink);
+          try (AstSink sink = new JsonAstSink(writer, prettyPrint)) {
+            serialize(root, sink);
+          }
+        }
+
+        /** Like the Writer overload, but writes UTF-8 bytes with no char-to-byte pass. */
+        public static void serialize(Object root, OutputStream outputStream, boolean prettyPrint) {
+          try (AstSink sink = new JsonAstSink(outputStream, prettyPrint, null)) {
+            serialize(root, sink);
+          }
+        }
+
+        /** Writes the wrapper document to a caller-owned sink, without flushing it. */
+        public static void serialize(Object root, AstSink sink) {
+          NodeType type = nodeType(root.getClass());
+          sink.startDocument(root.getClass().getName());
+          type.fields(sink.profile()).write(root, sink);
           sink.endDocument();
-          sink.flush();
         }
 
-        /** Writes an object as a classed node: {"@class": cn, ...fields}. */
+        /**
+         * Writes an object as a classed node: {"@class": cn, ...fields}, or a
+         * location as [startIndex, endIndex, line, column] if the sink packs them
+         * (without column if the printer profile leaves it out).
+         */
         public static void writeNode(Object o, AstSink sink) {
-          String cn = o.getClass().getName();
-          sink.startObject(cn);
-          writeFields(o, cn, sink);
+          NodeType type = nodeType(o.getClass());
+          if (type.location() && sink.packedLocations()) {
+            writePackedLocation((Location) o, sink);
+            return;
+          }
+          sink.startObject(type.className(), type.classId());
+          type.fields(sink.profile()).write(o, sink);
           sink.endObject();
         }
 
@@ -69,31 +126,36 @@ final class JavaEmitter {
           if (o == null) {
             sink.valueNull();
           } else if (o instanceof String v) {
-            box(sink, "string"); sink.valueString(v); sink.endObject();
+            box(sink, BOX_STRING); sink.valueString(v); sink.endObject();
           } else if (o instanceof Integer v) {
-            box(sink, "int"); sink.valueLong(v); sink.endObject();
+            box(sink, BOX_INT); sink.valueLong(v); sink.endObject();
           } else if (o instanceof Long v) {
-            box(sink, "long"); sink.valueLong(v); sink.endObject();
+            box(sink, BOX_LONG); sink.valueLong(v); sink.endObject();
           } else if (o instanceof Short v) {
-            box(sink, "short"); sink.valueLong(v); sink.endObject();
+            box(sink, BOX_SHORT); sink.valueLong(v); sink.endObject();
           } else if (o instanceof Byte v) {
-            box(sink, "byte"); sink.valueLong(v); sink.endObject();
+            box(sink, BOX_BYTE); sink.valueLong(v); sink.endObject();
           } else if (o instanceof Boolean v) {
-            box(sink, "boolean"); sink.valueBoolean(v); sink.endObject();
+            box(sink, BOX_BOOLEAN); sink.valueBoolean(v); sink.endObject();
           } else if (o instanceof Double v) {
-            box(sink, "double"); sink.valueDouble(v); sink.endObject();
+            box(sink, BOX_DOUBLE); sink.valueDouble(v); sink.endObject();
           } else if (o instanceof Float v) {
-            box(sink, "float"); sink.valueDouble(v); sink.endObject();
+            box(sink, BOX_FLOAT); sink.valueDouble(v); sink.endObject();
           } else if (o instanceof Character v) {
-            box(sink, "char"); sink.valueString(String.valueOf(v)); sink.endObject();
+            box(sink, BOX_CHAR); sink.valueString(String.valueOf(v)); sink.endObject();
           } else if (o instanceof BigDecimal v) {
-            box(sink, "big-decimal"); sink.valueBigDecimal(v); sink.endObject();
+            box(sink, BOX_BIG_DECIMAL); sink.valueBigDecimal(v); sink.endObject();
           } else if (o instanceof Enum<?> v) {
-            sink.startObject(v.getDeclaringClass().getName());
-            sink.name("$"); sink.valueString(v.name()); sink.endObject();
+            NodeType type = NODE_TYPES.get(v.getDeclaringClass());
+            if (type != null) {
+              sink.startObject(type.className(), type.classId());
+            } else {
+              sink.startObject(v.getDeclaringClass().getName());
+            }
+            sink.name(VALUE_NAME); sink.valueString(v.name()); sink.endObject();
           } else if (o instanceof Optional<?> v) {
             sink.startObject();
-            if (v.isPresent()) { sink.name("value"); writeValue(v.get(), sink); }
+            if (v.isPresent()) { sink.name(OPTIONAL_VALUE_NAME); writeValue(v.get(), sink); }
             sink.endObject();
           } else if (o instanceof Map<?, ?> v) {
             sink.startArray();
@@ -104,6 +166,12 @@ final class JavaEmitter {
               sink.endArray();
             }
             sink.endArray();
+          } else if (o instanceof List<?> v && v instanceof RandomAccess) {
+            // Indexed rather than with an iterator, which would be an object
+            // per list: writeValue recurses, so escape analysis can't remove it.
+            sink.startArray();
+            for (int i = 0, size = v.size(); i < size; i++) { writeValue(v.get(i), sink); }
+            sink.endArray();
           } else if (o instanceof Collection<?> v) {
             sink.startArray();
             for (Object e : v) { writeValue(e, sink); }
@@ -123,51 +191,166 @@ final class JavaEmitter {
           }
         }
 
-        private static void box(AstSink sink, String className) {
-          sink.startObject(className);
-          sink.name("$");
+        private static void writePackedLocation(Location location, AstSink sink) {
+          sink.startArray();
+          sink.valueLong(location.getStartIndex());
+          sink.valueLong(location.getEndIndex());
+          sink.valueLong(location.getLine());
+      """);
+    // Packed locations follow the printer profile too: if it leaves column
+    // out of location objects, it leaves it out of the arrays.
+    if (printerExcludesColumn(models)) {
+      sb.append("""
+              if (sink.profile() != AstProfile.PRINTER) {
+                sink.valueLong(location.getColumn());
+              }
+          """);
+    } else {
+      sb.append("    sink.valueLong(location.getColumn());\n");
+    }
+    sb.append("""
+          sink.endArray();
+        }
+
+        private static void box(AstSink sink, int classId) {
+          sink.startObject(CLASS_NAMES[classId], classId);
+          sink.name(VALUE_NAME);
+        }
+
+        private static NodeType nodeType(Class<?> type) {
+          NodeType nodeType = NODE_TYPES.get(type);
+          if (nodeType == null || nodeType.fields() == null) {
+            throw new IllegalStateException(
+              "No serializer generated for type: " + type.getName()
+            );
+          }
+          return nodeType;
+        }
+
+        @FunctionalInterface
+        private interface FieldWriter {
+          void write(Object o, AstSink sink);
+        }
+
+        /**
+         * What writing a node of one runtime class takes: its pre-encoded
+         * {@code @class} name, its class id, its field writers for the full
+         * and the printer profile ({@code null} for enums, which are written as
+         * their name instead), and whether it is a location.
+         */
+        private record NodeType(
+          SerializedString className,
+          int classId,
+          FieldWriter fields,
+          FieldWriter printerFields,
+          boolean location
+        ) {
+          FieldWriter fields(AstProfile profile) {
+            return profile == AstProfile.PRINTER ? printerFields : fields;
+          }
         }
       """);
 
-    // Generated dispatch: class name -> per-type field writer.
-    sb.append("\n  static void writeFields(Object o, String cn, AstSink sink) {\n");
-    sb.append("    switch (cn) {\n");
+    // Generated class table, and the ids of the boxed scalar names.
+    sb.append("\n  /** Every {@code @class} value this serializer writes, indexed by class id. */\n");
+    sb.append("  public static final String[] CLASS_TABLE = {\n");
+    for (String className : classTable) {
+      sb.append("    \"").append(className).append("\",\n");
+    }
+    sb.append("  };\n\n");
+    sb.append("""
+        // Pre-encoded names: the sink writes their escaped, encoded bytes as-is
+        // instead of re-encoding the same strings on every node.
+        private static final SerializedString[] CLASS_NAMES = new SerializedString[CLASS_TABLE.length];
+
+        static {
+          for (int i = 0; i < CLASS_TABLE.length; i++) {
+            CLASS_NAMES[i] = new SerializedString(CLASS_TABLE[i]);
+          }
+        }
+
+        private static final SerializedString VALUE_NAME = new SerializedString("$");
+        private static final SerializedString OPTIONAL_VALUE_NAME = new SerializedString("value");
+      """);
+    for (String fieldName : fieldNames) {
+      sb.append("  private static final SerializedString F_").append(fieldName)
+        .append(" = new SerializedString(\"").append(fieldName).append("\");\n");
+    }
+    sb.append("\n");
+    for (String boxName : BOX_NAMES) {
+      sb.append("  private static final int BOX_")
+        .append(boxName.toUpperCase(Locale.ROOT).replace('-', '_'))
+        .append(" = ").append(classTable.indexOf(boxName)).append(";\n");
+    }
+
+    // Generated dispatch: runtime class -> NodeType. The class-name switch only
+    // runs the first time each class is seen; from then on the ClassValue
+    // answers with a lookup on the Class object itself.
+    sb.append("\n  private static final ClassValue<NodeType> NODE_TYPES = new ClassValue<>() {\n");
+    sb.append("    @Override\n");
+    sb.append("    protected NodeType computeValue(Class<?> type) {\n");
+    sb.append("      return switch (type.getName()) {\n");
     for (TypeModel model : models) {
-      sb.append("      case \"").append(model.className).append("\" -> ")
-        .append(methodName(model.className)).append("(o, sink);\n");
+      int classId = classTable.indexOf(model.className);
+      String printerMethod = model.hasPrinterExclusions()
+        ? printerMethodName(model.className)
+        : methodName(model.className);
+      sb.append("        case \"").append(model.className).append("\" -> new NodeType(CLASS_NAMES[")
+        .append(classId).append("], ").append(classId).append(", GeneratedAstSerializer::")
+        .append(methodName(model.className)).append(", GeneratedAstSerializer::")
+        .append(printerMethod).append(", ").append(model.location).append(");\n");
+    }
+    for (String enumClassName : enumClassNames) {
+      int classId = classTable.indexOf(enumClassName);
+      sb.append("        case \"").append(enumClassName).append("\" -> new NodeType(CLASS_NAMES[")
+        .append(classId).append("], ").append(classId).append(", null, null, false);\n");
     }
-    sb.append("      default -> throw new IllegalStateException("
-      + "\"No serializer generated for type: \" + cn);\n");
-    sb.append("    }\n  }\n");
+    sb.append("        default -> null;\n");
+    sb.append("      };\n    }\n  };\n\n");
 
     // Generated per-type field writers.
     for (TypeModel model : models) {
-      sb.append("\n  private static void ").append(methodName(model.className))
-        .append("(Object o, AstSink sink) {\n");
-      int localVar = 0;
-      for (TypeModel.FieldModel field : model.fields) {
-        String read = "((" + field.castType + ") o)" + field.accessSuffix;
-        if (field.primitive) {
-          sb.append("    sink.name(\"").append(field.jsonName).append("\");\n");
-          sb.append("    ").append(valueCall(field, read)).append(";\n");
-        } else {
-          // XStream omits null fields entirely; also, reading a null wrapper
-          // inline would NPE on unboxing. Read once and skip when null.
-          String var = "v" + (localVar++);
-          sb.append("    var ").append(var).append(" = ").append(read).append(";\n");
-          sb.append("    if (").append(var).append(" != null) {\n");
-          sb.append("      sink.name(\"").append(field.jsonName).append("\");\n");
-          sb.append("      ").append(valueCall(field, var)).append(";\n");
-          sb.append("    }\n");
-        }
+      appendFieldWriter(sb, methodName(model.className), model, false);
+      if (model.hasPrinterExclusions()) {
+        appendFieldWriter(sb, printerMethodName(model.className), model, true);
       }
-      sb.append("  }\n");
     }
 
     sb.append("}\n");
     return sb.toString();
   }
 
+  private static void appendFieldWriter(
+    StringBuilder sb,
+    String methodName,
+    TypeModel model,
+    boolean printerProfile
+  ) {
+    sb.append("\n  private static void ").append(methodName)
+      .append("(Object o, AstSink sink) {\n");
+    int localVar = 0;
+    for (TypeModel.FieldModel field : model.fields) {
+      if (printerProfile && field.printerExcluded) {
+        continue;
+      }
+      String read = "((" + field.castType + ") o)" + field.accessSuffix;
+      if (field.primitive) {
+        sb.append("    sink.name(F_").append(field.jsonName).append(");\n");
+        sb.append("    ").append(valueCall(field, read)).append(";\n");
+      } else {
+        // XStream omits null fields entirely; also, reading a null wrapper
+        // inline would NPE on unboxing. Read once and skip when null.
+        String var = "v" + (localVar++);
+        sb.append("    var ").append(var).append(" = ").append(read).append(";\n");
+        sb.append("    if (").append(var).append(" != null) {\n");
+        sb.append("      sink.name(F_").append(field.jsonName).append(");\n");
+        sb.append("      ").append(valueCall(field, var)).append(";\n");
+        sb.append("    }\n");
+      }
+    }
+    sb.append("  }\n");
+  }
+
   private static String valueCall(TypeModel.FieldModel field, String read) {
     if (field.inlineKind == null) {
       return "writeValue((Object) (" + read + "), sink)";
@@ -186,4 +369,16 @@ final class JavaEmitter {
   private static String methodName(String className) {
     return "fields_" + className.replace('.', '_').replace('$', '_');
   }
+
+  private static boolean printerExcludesColumn(List<TypeModel> models) {
+    return models.stream()
+      .filter(m -> m.location)
+      .flatMap(m -> m.fields.stream())
+      .anyMatch(f -> f.jsonName.equals("column") && f.printerExcluded);
+  }
+
+  /** Like {@link #methodName}, for the printer profile's field writer. */
+  private static String printerMethodName(String className) {
+    return "printerFields_" + className.replace('.', '_').replace('$', '_');
+  }
 }
@@ -0,0 +1,123 @@
+package net.dangmai.serializer.codegen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * What the generated serializer's printer profile leaves out: jorje state
+ * prettier-plugin-apex never reads, so dropping it shrinks the payload and the
+ * work on both ends.
+ *
+ * <p>Which fields the plugin reads is taken from its TypeScript sources, which
+ * name every field they read: the printer reads fields as {@code node.name} or
+ * through {@code path.call(print, "name")}, and never builds a field name at
+ * runtime. Any identifier or string that appears anywhere in them counts as a
+ * read, which keeps more than needed but never drops a field in use.
+ *
+ * <p>{@code printer-profile.properties} adds the fields the plugin names but
+ * can do without. Each entry is {@code <class>#<field>}, and applies to the
+ * class and its subclasses, so an entry can name the jorje class that declares
+ * the field.
+ */
+final class PrinterProfile {
+
+  private static final String CONFIG_RESOURCE = "/printer-profile.properties";
+  private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+
+  private final List<String> exclusions;
+  private final Set<String> pluginNames;
+
+  PrinterProfile(List<String> exclusions, Set<String> pluginNames) {
+    for (String exclusion : exclusions) {
+      if (exclusion.indexOf('#') <= 0) {
+        throw new IllegalArgumentException(
+          "Expected <class>#<field> in " + CONFIG_RESOURCE + ": " + exclusion
+        );
+      }
+    }
+    this.exclusions = List.copyOf(exclusions);
+    this.pluginNames = Set.copyOf(pluginNames);
+  }
+
+  /**
+   * Loads the profile's exclusions and the names used by the plugin sources
+   * in {@code pluginSources}.
+   */
+  static PrinterProfile load(Path pluginSources) {
+    try (InputStream in = PrinterProfile.class.getResourceAsStream(CONFIG_RESOURCE)) {
+      if (in == null) {
+        throw new IllegalStateException("Missing " + CONFIG_RESOURCE);
+      }
+      Properties props = new Properties();
+      props.load(in);
+      List<String> exclusions = new ArrayList<>();
+      for (String entry : props.getProperty("exclude", "").split(",")) {
+        if (!entry.isBlank()) {
+          exclusions.add(entry.strip());
+        }
+      }
+      return new PrinterProfile(exclusions, pluginNames(pluginSources));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read " + CONFIG_RESOURCE, e);
+    }
+  }
+
+  private static Set<String> pluginNames(Path pluginSources) {
+    Set<String> names = new HashSet<>();
+    List<Path> sources;
+    try (Stream<Path> files = Files.walk(pluginSources)) {
+      sources = files.filter(f -> f.toString().endsWith(".ts")).toList();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to list " + pluginSources, e);
+    }
+    // Without any sources, every scalar field would count as unread.
+    if (sources.isEmpty()) {
+      throw new IllegalStateException("No TypeScript sources in " + pluginSources);
+    }
+    for (Path source : sources) {
+      try {
+        Matcher m = IDENTIFIER.matcher(Files.readString(source));
+        while (m.find()) {
+          names.add(m.group());
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to read " + source, e);
+      }
+    }
+    return names;
+  }
+
+  List<String> exclusions() {
+    return exclusions;
+  }
+
+  /** True if the plugin sources name {@code fieldName} anywhere. */
+  boolean pluginReads(String fieldName) {
+    return pluginNames.contains(fieldName);
+  }
+
+  /**
+   * Returns the entry that excludes {@code fieldName} from {@code clazz}, or
+   * {@code null} if the field is kept.
+   */
+  String exclusion(Class<?> clazz, String fieldName) {
+    for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      String entry = c.getName() + "#" + fieldName;
+      if (exclusions.contains(entry)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+}
@@ -6,27 +6,35 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Build-time entry point for the reflection-free AST serializer generator.
  *
  * <p>Discovers the concrete jorje AST types via {@link JorjeDiscovery}, builds a
- * {@link TypeModel} for each, and emits {@code GeneratedAstSerializer.java} into
- * the output directory passed as the first argument.
+ * {@link TypeModel} for each, marking the fields the {@link PrinterProfile}
+ * leaves out, and emits {@code GeneratedAstSerializer.java} into the output
+ * directory passed as the first argument. The second argument is
+ * prettier-plugin-apex's source directory, which the printer profile is
+ * derived from.
  */
 public final class SerializerGenerator {
 
   private SerializerGenerator() {}
 
   public static void main(String[] args) {
-    if (args.length < 1) {
-      throw new IllegalArgumentException("Usage: SerializerGenerator <output-source-dir>");
+    if (args.length < 2) {
+      throw new IllegalArgumentException(
+        "Usage: SerializerGenerator <output-source-dir> <plugin-source-dir>"
+      );
     }
     Path outputDir = Path.of(args[0]);
 
-    List<TypeModel> models = buildModels();
-    String source = JavaEmitter.emit(models);
+    List<ClassInfo> discovered = new JorjeDiscovery().discover();
+    List<TypeModel> models = buildModels(discovered, PrinterProfile.load(Path.of(args[1])));
+    String source = JavaEmitter.emit(models, enumClassNames(discovered));
     writeSource(outputDir, source);
 
     System.out.println(
@@ -34,10 +42,13 @@ public final class SerializerGenerator {
     );
   }
 
-  private static List<TypeModel> buildModels() {
-    List<ClassInfo> discovered = new JorjeDiscovery().discover();
+  private static List<TypeModel> buildModels(
+    List<ClassInfo> discovered,
+    PrinterProfile printerProfile
+  ) {
     List<TypeModel> models = new ArrayList<>();
     List<String> skipped = new ArrayList<>();
+    Set<String> matchedExclusions = new HashSet<>();
     for (ClassInfo ci : discovered) {
       // Only concrete classes get a field writer. Enums (including enum-constant
       // subclasses) are handled by writeValue's runtime dispatch, not here.
@@ -48,11 +59,11 @@ public final class SerializerGenerator {
       if (Enum.class.isAssignableFrom(clazz)) {
         continue;
       }
-      TypeModel model = TypeModel.build(clazz);
+      TypeModel model = TypeModel.build(clazz, printerProfile, matchedExclusions);
       if (model == null) {
         // A field with no accessible read path — e.g. *Builder classes, which
         // never appear in a real parsed AST. Left out of the dispatcher; if one
-        // ever shows up at runtime, writeFields throws loudly.
+        // ever shows up at runtime, writeNode throws loudly.
         skipped.add(ci.getName());
         continue;
       }
@@ -61,9 +72,50 @@ public final class SerializerGenerator {
     if (!skipped.isEmpty()) {
       System.out.println("Skipped " + skipped.size() + " types with no accessible fields: " + skipped);
     }
+    List<String> printerExcluded = new ArrayList<>();
+    for (TypeModel model : models) {
+      for (TypeModel.FieldModel field : model.fields) {
+        if (field.printerExcluded) {
+          printerExcluded.add(model.className + "#" + field.jsonName);
+        }
+      }
+    }
+    System.out.println(
+      "Printer profile leaves out " + printerExcluded.size() + " fields: " + printerExcluded
+    );
+    // An exclusion that matches nothing is a typo or a field jorje renamed;
+    // either way the profile no longer does what it says.
+    List<String> unmatched = new ArrayList<>(printerProfile.exclusions());
+    unmatched.removeAll(matchedExclusions);
+    if (!unmatched.isEmpty()) {
+      throw new IllegalStateException(
+        "Printer profile exclusions that match no serialized field: " + unmatched
+      );
+    }
+    // Packed locations rely on every location implementing the interface; if
+    // jorje stopped using it, they would silently be written as objects again.
+    if (models.stream().noneMatch(m -> m.location)) {
+      throw new IllegalStateException(
+        "No serialized type implements " + TypeModel.LOCATION_INTERFACE
+      );
+    }
     return models;
   }
 
+  /**
+   * The enum types, which writeValue tags with their declaring class name.
+   * Enum-constant subclasses are left out: they are written as their enum.
+   */
+  private static List<String> enumClassNames(List<ClassInfo> discovered) {
+    List<String> names = new ArrayList<>();
+    for (ClassInfo ci : discovered) {
+      if (ci.isEnum()) {
+        names.add(ci.getName());
+      }
+    }
+    return names;
+  }
+
   private static Class<?> load(String name) {
     try {
       return Class.forName(name, false, SerializerGenerator.class.getClassLoader());
@@ -47,28 +47,43 @@ final class TypeModel {
     final InlineKind inlineKind;
     /** True if the field's type is a Java primitive (never null; always emitted). */
     final boolean primitive;
+    /** True if the printer profile leaves this field out. */
+    final boolean printerExcluded;
 
     FieldModel(
       String jsonName,
       String castType,
       String accessSuffix,
       InlineKind inlineKind,
-      boolean primitive
+      boolean primitive,
+      boolean printerExcluded
     ) {
       this.jsonName = jsonName;
       this.castType = castType;
       this.accessSuffix = accessSuffix;
       this.inlineKind = inlineKind;
       this.primitive = primitive;
+      this.printerExcluded = printerExcluded;
     }
   }
 
+  /** jorje's location interface, whose getters a packed location is read through. */
+  static final String LOCATION_INTERFACE = "apex.jorje.data.Location";
+
   final String className;
   final List<FieldModel> fields;
+  /** True if this type implements {@link #LOCATION_INTERFACE}. */
+  final boolean location;
 
-  private TypeModel(String className, List<FieldModel> fields) {
+  private TypeModel(String className, List<FieldModel> fields, boolean location) {
     this.className = className;
     this.fields = fields;
+    this.location = location;
+  }
+
+  /** True if the printer profile leaves out any of this type's fields. */
+  boolean hasPrinterExclusions() {
+    return fields.stream().anyMatch(f -> f.printerExcluded);
   }
 
   // Field name -> getter method name, for the few jorje fields whose getter
@@ -93,20 +108,45 @@ final class TypeModel {
    * Builds the model for a concrete type, or returns {@code null} if any field
    * can't be read accessibly (e.g. builder classes with private fields and no
    * getters — these never appear in a real parsed AST).
+   *
+   * <p>The printer profile leaves out the fields its properties exclude, and
+   * the scalar and enum fields the plugin never names. Fields that can hold
+   * nodes are kept even then: the plugin's generic walks (comment attachment,
+   * location and line bookkeeping) visit every key of a node, named or not.
+   *
+   * @param printerProfile the printer profile; the exclusions that match one
+   *     of this type's fields are added to {@code matched}
    */
-  static TypeModel build(Class<?> clazz) {
+  static TypeModel build(Class<?> clazz, PrinterProfile printerProfile, Set<String> matched) {
     List<FieldModel> fields = new ArrayList<>();
+    List<String> exclusions = new ArrayList<>();
     for (Field f : instanceFields(clazz)) {
-      FieldModel fm = buildField(clazz, f);
+      String exclusion = printerProfile.exclusion(clazz, f.getName());
+      boolean unread =
+        (inlineKind(f.getType()) != null || f.getType().isEnum())
+          && !printerProfile.pluginReads(f.getName());
+      FieldModel fm = buildField(clazz, f, exclusion != null || unread);
       if (fm == null) {
         return null;
       }
+      if (exclusion != null) {
+        exclusions.add(exclusion);
+      }
       fields.add(fm);
     }
-    return new TypeModel(clazz.getName(), fields);
+    matched.addAll(exclusions);
+    return new TypeModel(clazz.getName(), fields, isLocation(clazz));
+  }
+
+  private static boolean isLocation(Class<?> clazz) {
+    try {
+      return Class.forName(LOCATION_INTERFACE, false, clazz.getClassLoader()).isAssignableFrom(clazz);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("jorje has no " + LOCATION_INTERFACE, e);
+    }
   }
 
-  private static FieldModel buildField(Class<?> clazz, Field f) {
+  private static FieldModel buildField(Class<?> clazz, Field f, boolean printerExcluded) {
     InlineKind kind = inlineKind(f.getType());
     boolean primitive = f.getType().isPrimitive();
     boolean fieldAccessible =
@@ -119,7 +159,9 @@ final class TypeModel {
       if (castType == null) {
         return null;
       }
-      return new FieldModel(f.getName(), castType, "." + f.getName(), kind, primitive);
+      return new FieldModel(
+        f.getName(), castType, "." + f.getName(), kind, primitive, printerExcluded
+      );
     }
     // Fall back to an accessible getter cast to a public declaring type.
     Method getter = findGetter(clazz, f);
@@ -131,7 +173,12 @@ final class TypeModel {
       return null;
     }
     return new FieldModel(
-      f.getName(), publicOwner.getCanonicalName(), "." + getter.getName() + "()", kind, primitive
+      f.getName(),
+      publicOwner.getCanonicalName(),
+      "." + getter.getName() + "()",
+      kind,
+      primitive,
+      printerExcluded
     );
   }
 
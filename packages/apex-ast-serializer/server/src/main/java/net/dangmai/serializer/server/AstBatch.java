@@ -0,0 +1,202 @@
+package net.dangmai.serializer.server;
+
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.dangmai.serializer.Frames;
+
+/**
+ * A batch request to the HTTP server: a JSON array of
+ * {@code {"id": ..., "sourceCode": "...", "anonymous": false}} items, each
+ * parsed and serialized concurrently on an executor from {@link #newExecutor}.
+ * The results are written as the newline-delimited {@link Frames} the CLI's
+ * batch mode uses, in completion order, so a client can start on the first
+ * result while the rest are still being parsed; an item that can't be
+ * processed gets an error frame rather than failing the whole batch.
+ */
+public final class AstBatch {
+
+  /** The servlet context attribute the server publishes its executor under. */
+  public static final String EXECUTOR_ATTRIBUTE =
+    AstBatch.class.getName() + ".executor";
+
+  /** The media type of the response, newline-delimited JSON. */
+  public static final String MEDIA_TYPE = "application/x-ndjson";
+
+  private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+  private final ServerMetrics metrics;
+  private int pending;
+  // Set when the body turns out to be malformed, so the items already
+  // submitted skip whatever work they haven't started yet.
+  private volatile boolean cancelled;
+
+  private AstBatch(ServerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Creates the executor batch items run on: a fixed pool of daemon threads,
+   * separate from the server's request threads. Were items to run on those,
+   * a large batch could take the threads Jetty needs to accept and serve
+   * connections, and concurrent batches could deadlock, each request thread
+   * waiting on items queued behind the others.
+   */
+  public static ExecutorService newExecutor(int threads) {
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(
+        runnable,
+        "apex-ast-batch-" + count.incrementAndGet()
+      );
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Reads the items from {@code body}, submitting each to {@code executor} as
+   * soon as it has been read. If the body is malformed, the items submitted
+   * so far are cancelled.
+   *
+   * @param limiter the parse limiter, or {@code null} for no limit
+   * @param metrics where the batch and its items are measured
+   * @throws IOException if the body isn't a JSON array of objects
+   */
+  public static AstBatch start(
+    InputStream body,
+    Executor executor,
+    ParseLimiter limiter,
+    ServerMetrics metrics
+  ) throws IOException {
+    AstBatch batch = new AstBatch(metrics);
+    try {
+      metrics.read(
+        body,
+        in -> {
+          batch.submitItems(in, executor, limiter);
+          return null;
+        },
+        null
+      );
+    } catch (IOException | RuntimeException e) {
+      batch.cancelled = true;
+      throw e;
+    }
+    return batch;
+  }
+
+  private void submitItems(
+    InputStream body,
+    Executor executor,
+    ParseLimiter limiter
+  ) throws IOException {
+    try (JsonParser parser = Frames.FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Expected a JSON array");
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        Item item = readItem(parser);
+        pending++;
+        executor.execute(() -> {
+          byte[] frame = process(item, limiter);
+          if (frame != null) {
+            frames.add(frame);
+          }
+        });
+      }
+      if (parser.currentToken() != JsonToken.END_ARRAY) {
+        throw new JsonParseException(parser, "Expected a JSON object");
+      }
+    }
+  }
+
+  /** Writes every item's frame to {@code outputStream} as it completes. */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    long bytes = 0;
+    for (; pending > 0; pending--) {
+      byte[] frame;
+      try {
+        frame = frames.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for a parse");
+      }
+      outputStream.write(frame);
+      outputStream.flush();
+      bytes += frame.length;
+    }
+    metrics.recordResponseBytes(bytes);
+  }
+
+  private static Item readItem(JsonParser parser) throws IOException {
+    String id = null;
+    String sourceCode = null;
+    boolean anonymous = false;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      switch (field) {
+        case "id" -> id = parser.getValueAsString();
+        case "sourceCode" -> sourceCode = parser.getValueAsString();
+        case "anonymous" -> anonymous = parser.getValueAsBoolean();
+        default -> {}
+      }
+      // Also skips an object or array where a string or boolean belongs.
+      parser.skipChildren();
+    }
+    return new Item(id, sourceCode, anonymous);
+  }
+
+  // Returns null if the batch was cancelled first.
+  private byte[] process(Item item, ParseLimiter limiter) {
+    if (cancelled) {
+      return null;
+    }
+    try {
+      if (item.sourceCode() == null) {
+        throw new IllegalArgumentException("Missing \"sourceCode\"");
+      }
+      ParserOutput output = metrics.parse(
+        limiter,
+        item.anonymous(),
+        item.sourceCode(),
+        null
+      );
+      if (cancelled) {
+        return null;
+      }
+      long serializeStartNs = System.nanoTime();
+      ByteArrayOutputStream frame = new ByteArrayOutputStream();
+      try (JsonGenerator generator = Frames.createGenerator(frame)) {
+        Frames.writeAst(generator, item.id(), output);
+      }
+      metrics.recordPhase(ServerMetrics.Phase.SERIALIZE, serializeStartNs);
+      return frame.toByteArray();
+    } catch (IOException | RuntimeException e) {
+      ByteArrayOutputStream frame = new ByteArrayOutputStream();
+      try (JsonGenerator generator = Frames.createGenerator(frame)) {
+        Frames.writeError(generator, item.id(), e);
+      } catch (IOException writeError) {
+        // Writing to a byte array doesn't fail.
+        throw new UncheckedIOException(writeError);
+      }
+      return frame.toByteArray();
+    }
+  }
+
+  private record Item(String id, String sourceCode, boolean anonymous) {}
+}
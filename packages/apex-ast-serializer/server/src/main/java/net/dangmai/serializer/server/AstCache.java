@@ -0,0 +1,148 @@
+package net.dangmai.serializer.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory cache of serialized ASTs, keyed by
+ * {@link net.dangmai.serializer.cache.CacheKey}. Bounded by the total size of
+ * the cached payloads, evicting the least recently used entries first.
+ *
+ * <p>Payloads are shared, not copied: callers must not modify the arrays they
+ * put or get.
+ */
+public final class AstCache {
+
+  /** Tells clients whether a response came from the cache. */
+  public static final String HEADER = "X-Apex-Cache";
+
+  private final long maxBytes;
+  // Access-ordered, so iteration starts at the least recently used entry.
+  private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(
+    16,
+    0.75f,
+    true
+  );
+  private long bytes;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public AstCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns the cached payload, or {@code null} (counted as a miss). */
+  public byte[] get(String key) {
+    byte[] payload;
+    synchronized (entries) {
+      payload = entries.get(key);
+    }
+    (payload != null ? hits : misses).increment();
+    return payload;
+  }
+
+  /** Caches a payload, unless it alone is larger than the whole cache. */
+  public void put(String key, byte[] payload) {
+    if (payload.length > maxBytes) {
+      return;
+    }
+    synchronized (entries) {
+      byte[] previous = entries.put(key, payload);
+      bytes += payload.length - (previous != null ? previous.length : 0);
+      Iterator<Map.Entry<String, byte[]>> eldest = entries
+        .entrySet()
+        .iterator();
+      while (bytes > maxBytes) {
+        bytes -= eldest.next().getValue().length;
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Returns a stream that collects a payload for {@link #put} as it is written
+   * elsewhere, e.g. through a {@code TeeOutputStream}. Once the payload is too
+   * large to be cached, the stream drops what it has collected and ignores the
+   * rest, so an uncacheable AST is never held in memory in full.
+   */
+  public Capture capture() {
+    return new Capture(maxBytes);
+  }
+
+  /**
+   * Caches a payload collected by {@link #capture}, unless it grew too large
+   * to keep.
+   */
+  public void put(String key, Capture capture) {
+    byte[] payload = capture.toByteArray();
+    if (payload != null) {
+      put(key, payload);
+    }
+  }
+
+  public Stats stats() {
+    synchronized (entries) {
+      return new Stats(
+        hits.sum(),
+        misses.sum(),
+        evictions.sum(),
+        entries.size(),
+        bytes,
+        maxBytes
+      );
+    }
+  }
+
+  /** A payload being collected for the cache; see {@link #capture}. */
+  public static final class Capture extends OutputStream {
+
+    private final long maxBytes;
+    private ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+    private Capture(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void write(int b) {
+      if (fits(1)) {
+        payload.write(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (fits(len)) {
+        payload.write(b, off, len);
+      }
+    }
+
+    /** The collected payload, or {@code null} if it outgrew the cache. */
+    byte[] toByteArray() {
+      return payload != null ? payload.toByteArray() : null;
+    }
+
+    private boolean fits(int len) {
+      if (payload != null && payload.size() + (long) len > maxBytes) {
+        payload = null;
+      }
+      return payload != null;
+    }
+  }
+
+  /** A snapshot of the cache's counters, as served by the stats endpoint. */
+  public record Stats(
+    long hits,
+    long misses,
+    long evictions,
+    int entries,
+    long bytes,
+    long maxBytes
+  ) {}
+}
@@ -0,0 +1,283 @@
+package net.dangmai.serializer.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import net.dangmai.serializer.Frames;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Fields;
+
+/**
+ * Serves the same API as
+ * {@link net.dangmai.serializer.server.resources.AbstractSyntaxTreeResource}
+ * straight from Jetty, without the servlet container, Jersey, HK2 or Jackson
+ * databind: the request body is read with Jackson's streaming parser and the
+ * AST streamed back as it is serialized. This keeps per-request overhead and
+ * startup time down, and leaves nothing that depends on runtime reflection.
+ *
+ * <p>Mounted at {@code /api/ast}, it answers {@code GET /} with a health
+ * check, {@code POST /} and {@code POST /raw} with an AST,
+ * {@code POST /batch} with an {@link AstBatch} and {@code GET /cache} with the
+ * AST cache statistics. AST responses carry {@link ServerTiming} headers
+ * and trailers.
+ */
+public final class AstHandler extends Handler.Abstract {
+
+  private final AstService service;
+  private final ParseLimiter limiter;
+  private final Executor executor;
+  private final ServerMetrics metrics;
+
+  /**
+   * @param service what answers AST requests
+   * @param limiter the parse limiter, or {@code null} for no limit
+   * @param executor where the items of batch requests are parsed, from
+   *     {@link AstBatch#newExecutor}
+   * @param metrics where requests are measured
+   */
+  public AstHandler(
+    AstService service,
+    ParseLimiter limiter,
+    Executor executor,
+    ServerMetrics metrics
+  ) {
+    this.service = service;
+    this.limiter = limiter;
+    this.executor = executor;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public boolean handle(
+    org.eclipse.jetty.server.Request request,
+    Response response,
+    Callback callback
+  ) throws Exception {
+    String path = org.eclipse.jetty.server.Request.getPathInContext(request);
+    String method = request.getMethod();
+    if (path.isEmpty() || path.equals("/")) {
+      if (HttpMethod.GET.is(method)) {
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, "text/plain");
+        Content.Sink.write(response, true, "Server up and running", callback);
+        return true;
+      }
+      if (HttpMethod.POST.is(method)) {
+        parse(request, response, callback);
+        return true;
+      }
+    } else if (path.equals("/raw") && HttpMethod.POST.is(method)) {
+      parseRaw(request, response, callback);
+      return true;
+    } else if (path.equals("/batch") && HttpMethod.POST.is(method)) {
+      parseBatch(request, response, callback);
+      return true;
+    } else if (path.equals("/cache") && HttpMethod.GET.is(method)) {
+      cacheStats(request, response, callback);
+      return true;
+    }
+    return false;
+  }
+
+  private void parse(
+    org.eclipse.jetty.server.Request request,
+    Response response,
+    Callback callback
+  ) throws IOException {
+    ServerTiming timing = new ServerTiming();
+    Request astRequest;
+    try (InputStream body = Content.Source.asInputStream(request)) {
+      astRequest = metrics.read(body, Request::read, timing);
+    } catch (IOException e) {
+      Response.writeError(
+        request,
+        response,
+        callback,
+        HttpStatus.BAD_REQUEST_400,
+        e.getMessage()
+      );
+      return;
+    }
+    respond(request, response, callback, astRequest, timing);
+  }
+
+  /**
+   * Like {@link #parse}, but takes the source code as the plain text request
+   * body and the options as query parameters, so it needn't be JSON-escaped
+   * on the client and decoded again here.
+   */
+  private void parseRaw(
+    org.eclipse.jetty.server.Request request,
+    Response response,
+    Callback callback
+  ) throws IOException {
+    Fields query = org.eclipse.jetty.server.Request.extractQueryParameters(
+      request
+    );
+    ServerTiming timing = new ServerTiming();
+    Request astRequest = new Request();
+    try (InputStream body = Content.Source.asInputStream(request)) {
+      Charset requestCharset = org.eclipse.jetty.server.Request.getCharset(
+        request
+      );
+      Charset charset = requestCharset != null
+        ? requestCharset
+        : StandardCharsets.UTF_8;
+      astRequest.setSourceCode(
+        metrics.read(
+          body,
+          in -> new String(in.readAllBytes(), charset),
+          timing
+        )
+      );
+    } catch (IOException | IllegalArgumentException e) {
+      Response.writeError(
+        request,
+        response,
+        callback,
+        HttpStatus.BAD_REQUEST_400,
+        e.getMessage()
+      );
+      return;
+    }
+    astRequest.setAnonymous(booleanParameter(query, "anonymous"));
+    astRequest.setFormat(query.getValue("format"));
+    astRequest.setPrettyPrint(booleanParameter(query, "prettyPrint"));
+    astRequest.setClassDictionary(booleanParameter(query, "classDictionary"));
+    astRequest.setProfile(query.getValue("profile"));
+    astRequest.setPackedLocations(booleanParameter(query, "packedLocations"));
+    astRequest.setReferences(booleanParameter(query, "references"));
+    respond(request, response, callback, astRequest, timing);
+  }
+
+  private void parseBatch(
+    org.eclipse.jetty.server.Request request,
+    Response response,
+    Callback callback
+  ) throws IOException {
+    AstBatch batch;
+    try (InputStream body = Content.Source.asInputStream(request)) {
+      batch = AstBatch.start(body, executor, limiter, metrics);
+    } catch (IOException e) {
+      Response.writeError(
+        request,
+        response,
+        callback,
+        HttpStatus.BAD_REQUEST_400,
+        e.getMessage()
+      );
+      return;
+    }
+    response.getHeaders().put(HttpHeader.CONTENT_TYPE, AstBatch.MEDIA_TYPE);
+    try (OutputStream body = Content.Sink.asOutputStream(response)) {
+      batch.writeTo(body);
+    } catch (IOException e) {
+      callback.failed(e);
+      return;
+    }
+    callback.succeeded();
+  }
+
+  private void respond(
+    org.eclipse.jetty.server.Request request,
+    Response response,
+    Callback callback,
+    Request astRequest,
+    ServerTiming timing
+  ) throws IOException {
+    AstService.Answer answer;
+    try {
+      answer = service.answer(astRequest, timing);
+    } catch (IllegalArgumentException e) {
+      Response.writeError(
+        request,
+        response,
+        callback,
+        HttpStatus.BAD_REQUEST_400,
+        e.getMessage()
+      );
+      return;
+    }
+    response.getHeaders().put(HttpHeader.CONTENT_TYPE, answer.mediaType());
+    if (answer.cacheStatus() != null) {
+      response.getHeaders().put(AstCache.HEADER, answer.cacheStatus());
+    }
+    sendTiming(request, response, timing);
+    try (OutputStream body = Content.Sink.asOutputStream(response)) {
+      answer.writeTo(body, timing);
+    } catch (IOException | RuntimeException e) {
+      callback.failed(e);
+      return;
+    }
+    callback.succeeded();
+  }
+
+  /**
+   * Sends the timings recorded so far as a header, and those recorded while
+   * the body is written as a trailer, where the protocol allows one.
+   */
+  private static void sendTiming(
+    org.eclipse.jetty.server.Request request,
+    Response response,
+    ServerTiming timing
+  ) {
+    response.getHeaders().put(ServerTiming.HEADER, timing.take());
+    HttpVersion version = request.getConnectionMetaData().getHttpVersion();
+    if (version != HttpVersion.HTTP_1_0) {
+      response.getHeaders().put(HttpHeader.TRAILER, ServerTiming.HEADER);
+      response.setTrailersSupplier(() ->
+        HttpFields.build().put(ServerTiming.HEADER, timing.take())
+      );
+    }
+  }
+
+  private void cacheStats(
+    org.eclipse.jetty.server.Request request,
+    Response response,
+    Callback callback
+  ) throws IOException {
+    AstCache cache = service.cache();
+    if (cache == null) {
+      Response.writeError(
+        request,
+        response,
+        callback,
+        HttpStatus.NOT_FOUND_404,
+        "The AST cache is disabled"
+      );
+      return;
+    }
+    AstCache.Stats stats = cache.stats();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (JsonGenerator generator = Frames.FACTORY.createGenerator(body)) {
+      generator.writeStartObject();
+      generator.writeNumberField("hits", stats.hits());
+      generator.writeNumberField("misses", stats.misses());
+      generator.writeNumberField("evictions", stats.evictions());
+      generator.writeNumberField("entries", stats.entries());
+      generator.writeNumberField("bytes", stats.bytes());
+      generator.writeNumberField("maxBytes", stats.maxBytes());
+      generator.writeEndObject();
+    }
+    response.getHeaders().put(HttpHeader.CONTENT_TYPE, "application/json");
+    response.write(true, ByteBuffer.wrap(body.toByteArray()), callback);
+  }
+
+  private static Boolean booleanParameter(Fields query, String name) {
+    String value = query.getValue(name);
+    return value != null ? Boolean.valueOf(value) : null;
+  }
+}
@@ -0,0 +1,141 @@
+package net.dangmai.serializer.server;
+
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import net.dangmai.serializer.OutputOptions;
+import net.dangmai.serializer.cache.CacheKey;
+import org.apache.commons.io.output.TeeOutputStream;
+
+/**
+ * Answers AST requests for both front ends, the Jersey
+ * {@link net.dangmai.serializer.server.resources.AbstractSyntaxTreeResource}
+ * and the lightweight {@link AstHandler}: it checks the request, serves it
+ * from the AST cache or parses it, and serializes the AST into the response
+ * body, capturing it for the cache on the way. The front ends only turn the
+ * {@link Answer} into their own kind of response, with its headers and
+ * {@link ServerTiming} trailer.
+ */
+public final class AstService {
+
+  /** The servlet context attribute the server publishes the service under. */
+  public static final String ATTRIBUTE = AstService.class.getName();
+
+  private final AstCache cache;
+  private final ParseLimiter limiter;
+  private final ServerMetrics metrics;
+
+  /**
+   * @param cache the AST cache, or {@code null} to disable caching
+   * @param limiter the parse limiter, or {@code null} for no limit
+   * @param metrics where requests are measured
+   */
+  public AstService(
+    AstCache cache,
+    ParseLimiter limiter,
+    ServerMetrics metrics
+  ) {
+    this.cache = cache;
+    this.limiter = limiter;
+    this.metrics = metrics;
+  }
+
+  /** The AST cache, or {@code null} if caching is disabled. */
+  public AstCache cache() {
+    return cache;
+  }
+
+  /**
+   * Looks {@code request} up in the cache, or parses it. Parsing happens here,
+   * before the front end commits to a response, so a failure still gets an
+   * error status; only serialization happens once the body is being written.
+   *
+   * @throws IllegalArgumentException if the request has no source code, or an
+   *     unknown format or profile
+   */
+  public Answer answer(Request request, ServerTiming timing) {
+    if (request.getSourceCode() == null) {
+      throw new IllegalArgumentException("Missing sourceCode");
+    }
+    OutputOptions options = request.outputOptions();
+    boolean anonymous = Boolean.TRUE.equals(request.getAnonymous());
+    if (cache == null) {
+      return new Answer(options, parse(request, anonymous, timing), null, null);
+    }
+    String key = CacheKey.of(request.getSourceCode(), anonymous, options);
+    byte[] cached = cache.get(key);
+    if (cached != null) {
+      timing.add("cache", "hit");
+      return new Answer(options, null, key, cached);
+    }
+    return new Answer(options, parse(request, anonymous, timing), key, null);
+  }
+
+  private ParserOutput parse(
+    Request request,
+    boolean anonymous,
+    ServerTiming timing
+  ) {
+    return metrics.parse(limiter, anonymous, request.getSourceCode(), timing);
+  }
+
+  /** The response to an AST request, to be written once it has started. */
+  public final class Answer {
+
+    private final OutputOptions options;
+    private final ParserOutput output;
+    private final String cacheKey;
+    private final byte[] cached;
+
+    private Answer(
+      OutputOptions options,
+      ParserOutput output,
+      String cacheKey,
+      byte[] cached
+    ) {
+      this.options = options;
+      this.output = output;
+      this.cacheKey = cacheKey;
+      this.cached = cached;
+    }
+
+    public String mediaType() {
+      return options.format().getMediaType();
+    }
+
+    /**
+     * The value of the {@link AstCache#HEADER} header, or {@code null} if
+     * caching is disabled.
+     */
+    public String cacheStatus() {
+      if (cacheKey == null) {
+        return null;
+      }
+      return cached != null ? "HIT" : "MISS";
+    }
+
+    /**
+     * Writes the AST to {@code body}. A freshly serialized AST is streamed
+     * straight into it, so a request never holds more of the AST in memory
+     * than the response buffers, unless it is also being captured for the
+     * cache, and then only up to what the cache would keep.
+     */
+    public void writeTo(OutputStream body, ServerTiming timing)
+      throws IOException {
+      if (cached != null) {
+        metrics.write(cached, body, timing);
+      } else if (cacheKey == null) {
+        metrics.serialize(output, options, body, timing);
+      } else {
+        AstCache.Capture payload = cache.capture();
+        metrics.serialize(
+          output,
+          options,
+          new TeeOutputStream(body, payload),
+          timing
+        );
+        cache.put(cacheKey, payload);
+      }
+    }
+  }
+}
@@ -1,24 +1,24 @@
 package net.dangmai.serializer.server;
 
-import static org.eclipse.jetty.ee10.servlet.ServletContextHandler.NO_SESSIONS;
-
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
-import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
-import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Handler.Sequence;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.CrossOriginHandler;
 import org.eclipse.jetty.server.handler.ShutdownHandler;
-import org.glassfish.jersey.servlet.ServletContainer;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.VirtualThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +60,30 @@ public class HttpServer {
       true,
       "Comma-delimited list of allowed origins to be added the CORS response header"
     );
+    cliOptions.addOption(
+      "m",
+      "cache-max-bytes",
+      true,
+      "Cache serialized ASTs in memory, up to this many bytes in total, so repeated requests for the same source skip parsing. Disabled by default."
+    );
+    cliOptions.addOption(
+      "t",
+      "virtual-threads",
+      false,
+      "Handle requests on virtual threads (requires Java 21 or later), with at most --max-concurrent-parses parses running at once."
+    );
+    cliOptions.addOption(
+      "n",
+      "max-concurrent-parses",
+      true,
+      "The most parses to run at once; further requests wait for one to finish. Defaults to the number of CPU cores with --virtual-threads, and to no limit otherwise. The items of batch requests always run on a pool of this many threads, one per CPU core by default."
+    );
+    cliOptions.addOption(
+      "l",
+      "lightweight",
+      false,
+      "Serve the API from a plain Jetty handler instead of Jersey, which starts faster and has less per-request overhead. Always on in the native server."
+    );
     cliOptions.addOption("v", "version", false, "Print version information.");
 
     CommandLineParser cliParser = new DefaultParser();
@@ -85,7 +109,16 @@ public class HttpServer {
         ? Integer.parseInt(cmd.getOptionValue("p"))
         : 2117;
       String host = cmd.hasOption("h") ? cmd.getOptionValue("h") : "0.0.0.0";
-      Server server = new Server();
+      Server server;
+      if (cmd.hasOption("t")) {
+        if (!VirtualThreads.areSupported()) {
+          LOGGER.error("Virtual threads require Java 21 or later");
+          System.exit(1);
+        }
+        server = new Server(new VirtualThreadPool());
+      } else {
+        server = new Server();
+      }
 
       ServerConnector httpConnector = new ServerConnector(server);
       httpConnector.setHost(host);
@@ -93,19 +126,52 @@ public class HttpServer {
       httpConnector.setIdleTimeout(-1);
       server.addConnector(httpConnector);
 
-      ServletContextHandler servletContextHandler = new ServletContextHandler(
-        NO_SESSIONS
-      );
-      servletContextHandler.setContextPath("/api");
-      ServletHolder servletHolder = servletContextHandler.addServlet(
-        ServletContainer.class,
-        "/ast/*"
-      );
-      servletHolder.setInitOrder(0);
-      servletHolder.setInitParameter(
-        "jersey.config.server.provider.packages",
-        "net.dangmai.serializer.server.resources"
+      ParseLimiter parseLimiter = null;
+      if (cmd.hasOption("n") || cmd.hasOption("t")) {
+        parseLimiter = new ParseLimiter(
+          cmd.hasOption("n")
+            ? Integer.parseInt(cmd.getOptionValue("n"))
+            : Runtime.getRuntime().availableProcessors()
+        );
+      }
+      // Sized like the parse limiter, which also caps the parses batch items
+      // run once it is on.
+      ExecutorService batchExecutor = AstBatch.newExecutor(
+        cmd.hasOption("n")
+          ? Integer.parseInt(cmd.getOptionValue("n"))
+          : Runtime.getRuntime().availableProcessors()
       );
+      AstCache astCache = cmd.hasOption("m")
+        ? new AstCache(Long.parseLong(cmd.getOptionValue("m")))
+        : null;
+      ServerMetrics metrics = new ServerMetrics();
+      AstService astService = new AstService(astCache, parseLimiter, metrics);
+
+      // Jersey relies on runtime reflection and classpath scanning that a
+      // native image doesn't support, so the native server always uses the
+      // lightweight handler.
+      Handler apiHandler;
+      if (cmd.hasOption("l") || NativeImage.IN_IMAGE) {
+        ContextHandler contextHandler = new ContextHandler(
+          new AstHandler(
+            astService,
+            parseLimiter,
+            batchExecutor,
+            metrics
+          ),
+          "/api/ast"
+        );
+        // Clients post to /api/ast itself, which must not be redirected.
+        contextHandler.setAllowNullPathInContext(true);
+        apiHandler = contextHandler;
+      } else {
+        apiHandler = JerseyApi.newHandler(
+          astService,
+          parseLimiter,
+          batchExecutor,
+          metrics
+        );
+      }
       Sequence handlerSequence = new Sequence();
       if (cmd.hasOption("c")) {
         CrossOriginHandler crossOriginHandler = new CrossOriginHandler();
@@ -114,7 +180,15 @@ public class HttpServer {
         handlerSequence.addHandler(crossOriginHandler);
       }
 
-      handlerSequence.addHandler(servletContextHandler);
+      // Ahead of the API handler: the servlet context at /api would answer
+      // /api/metrics with a 404.
+      ContextHandler metricsHandler = new ContextHandler(
+        new MetricsHandler(metrics),
+        "/api/metrics"
+      );
+      metricsHandler.setAllowNullPathInContext(true);
+      handlerSequence.addHandler(metricsHandler);
+      handlerSequence.addHandler(apiHandler);
       if (cmd.hasOption("s")) {
         handlerSequence.addHandler(
           new ShutdownHandler(cmd.getOptionValue("a"))
@@ -130,6 +204,7 @@ public class HttpServer {
         System.exit(1);
       } finally {
         server.destroy();
+        batchExecutor.shutdownNow();
       }
     }
   }
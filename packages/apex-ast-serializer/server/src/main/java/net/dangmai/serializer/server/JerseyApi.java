@@ -0,0 +1,58 @@
+package net.dangmai.serializer.server;
+
+import static org.eclipse.jetty.ee10.servlet.ServletContextHandler.NO_SESSIONS;
+
+import java.util.concurrent.ExecutorService;
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.glassfish.jersey.servlet.ServletContainer;
+
+/**
+ * Serves the API at {@code /api/ast} from the Jersey resources in
+ * {@code net.dangmai.serializer.server.resources}, the server's default mode.
+ * Jersey is bootstrapped only here, so a native image, which can't support
+ * its runtime reflection and classpath scanning, never reaches it; see
+ * {@link NativeImage}.
+ */
+final class JerseyApi {
+
+  private JerseyApi() {}
+
+  static ServletContextHandler newHandler(
+    AstService service,
+    ParseLimiter limiter,
+    ExecutorService batchExecutor,
+    ServerMetrics metrics
+  ) {
+    ServletContextHandler servletContextHandler = new ServletContextHandler(
+      NO_SESSIONS
+    );
+    servletContextHandler.setContextPath("/api");
+    if (limiter != null) {
+      servletContextHandler.setAttribute(ParseLimiter.ATTRIBUTE, limiter);
+    }
+    servletContextHandler.setAttribute(AstService.ATTRIBUTE, service);
+    servletContextHandler.setAttribute(
+      AstBatch.EXECUTOR_ATTRIBUTE,
+      batchExecutor
+    );
+    servletContextHandler.setAttribute(ServerMetrics.ATTRIBUTE, metrics);
+    ServletHolder servletHolder = servletContextHandler.addServlet(
+      ServletContainer.class,
+      "/ast/*"
+    );
+    servletHolder.setInitOrder(0);
+    servletHolder.setInitParameter(
+      "jersey.config.server.provider.packages",
+      "net.dangmai.serializer.server.resources"
+    );
+    // Don't buffer responses to compute a Content-Length: ASTs are
+    // streamed to the client with chunked transfer encoding as they are
+    // serialized.
+    servletHolder.setInitParameter(
+      "jersey.config.server.outbound.content.length.buffer",
+      "0"
+    );
+    return servletContextHandler;
+  }
+}
@@ -0,0 +1,38 @@
+package net.dangmai.serializer.server;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.Callback;
+
+/** Serves {@link ServerMetrics} to Prometheus scrapes at {@code GET /}. */
+public final class MetricsHandler extends Handler.Abstract {
+
+  private final ServerMetrics metrics;
+
+  public MetricsHandler(ServerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public boolean handle(Request request, Response response, Callback callback)
+    throws Exception {
+    String path = Request.getPathInContext(request);
+    if (
+      !HttpMethod.GET.is(request.getMethod()) ||
+      !(path.isEmpty() || path.equals("/"))
+    ) {
+      return false;
+    }
+    StringBuilder body = new StringBuilder();
+    metrics.writePrometheus(body);
+    response
+      .getHeaders()
+      .put(HttpHeader.CONTENT_TYPE, ServerMetrics.MEDIA_TYPE);
+    Content.Sink.write(response, true, body.toString(), callback);
+    return true;
+  }
+}
@@ -0,0 +1,15 @@
+package net.dangmai.serializer.server;
+
+/**
+ * Whether the server runs as a native image. The native build initializes
+ * this class at image build time, while GraalVM sets the property, so the
+ * check is a constant there and the image builder drops the Jersey branch of
+ * {@link HttpServer} along with everything only it reaches.
+ */
+final class NativeImage {
+
+  static final boolean IN_IMAGE =
+    System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+
+  private NativeImage() {}
+}
@@ -0,0 +1,34 @@
+package net.dangmai.serializer.server;
+
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import java.util.concurrent.Semaphore;
+import net.dangmai.serializer.Apex;
+
+/**
+ * Caps how many jorje parses run at once, independently of how many requests
+ * are being handled. On virtual threads the server takes on every request it
+ * receives, so without a cap a burst would have hundreds of parses competing
+ * for a handful of cores; with it, the excess waits cheaply for a permit.
+ */
+public final class ParseLimiter {
+
+  /** The servlet context attribute the server publishes its limiter under. */
+  public static final String ATTRIBUTE = ParseLimiter.class.getName();
+
+  private final Semaphore permits;
+
+  public ParseLimiter(int maxConcurrentParses) {
+    // Fair, so a request doesn't wait behind ones that arrived after it.
+    this.permits = new Semaphore(maxConcurrentParses, true);
+  }
+
+  /** Parses like {@link Apex#parse}, once a permit is available. */
+  public ParserOutput parse(boolean anonymous, String sourceCode) {
+    permits.acquireUninterruptibly();
+    try {
+      return Apex.parse(anonymous, sourceCode);
+    } finally {
+      permits.release();
+    }
+  }
+}
@@ -1,5 +1,15 @@
 package net.dangmai.serializer.server;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import net.dangmai.serializer.Frames;
+import net.dangmai.serializer.OutputOptions;
+import net.dangmai.serializer.sink.AstFormat;
+import net.dangmai.serializer.sink.AstProfile;
+
 public class Request {
 
   public Boolean getAnonymous() {
@@ -31,4 +41,107 @@ public class Request {
   }
 
   private Boolean prettyPrint;
+
+  public String getFormat() {
+    return format;
+  }
+
+  public void setFormat(String format) {
+    this.format = format;
+  }
+
+  private String format;
+
+  public Boolean getClassDictionary() {
+    return classDictionary;
+  }
+
+  public void setClassDictionary(Boolean classDictionary) {
+    this.classDictionary = classDictionary;
+  }
+
+  private Boolean classDictionary;
+
+  public String getProfile() {
+    return profile;
+  }
+
+  public void setProfile(String profile) {
+    this.profile = profile;
+  }
+
+  private String profile;
+
+  public Boolean getPackedLocations() {
+    return packedLocations;
+  }
+
+  public void setPackedLocations(Boolean packedLocations) {
+    this.packedLocations = packedLocations;
+  }
+
+  private Boolean packedLocations;
+
+  public Boolean getReferences() {
+    return references;
+  }
+
+  public void setReferences(Boolean references) {
+    this.references = references;
+  }
+
+  private Boolean references;
+
+  /**
+   * The output options this request asks for.
+   *
+   * @throws IllegalArgumentException if the format or profile is unknown
+   */
+  public OutputOptions outputOptions() {
+    return OutputOptions.DEFAULT.withFormat(AstFormat.fromName(format))
+      .withPrettyPrint(Boolean.TRUE.equals(prettyPrint))
+      .withClassDictionary(Boolean.TRUE.equals(classDictionary))
+      .withProfile(AstProfile.fromName(profile))
+      .withPackedLocations(Boolean.TRUE.equals(packedLocations))
+      .withReferences(Boolean.TRUE.equals(references));
+  }
+
+  /**
+   * Reads a request body with Jackson's streaming parser, ignoring fields it
+   * doesn't know about. A field of the wrong type, e.g. an object where a
+   * string belongs, is skipped and read as {@code null}.
+   */
+  public static Request read(InputStream body) throws IOException {
+    Request request = new Request();
+    try (JsonParser parser = Frames.FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected a JSON object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        switch (field) {
+          case "sourceCode" -> request.setSourceCode(parser.getValueAsString());
+          case "format" -> request.setFormat(parser.getValueAsString());
+          case "profile" -> request.setProfile(parser.getValueAsString());
+          case "anonymous" -> request.setAnonymous(booleanValue(value));
+          case "prettyPrint" -> request.setPrettyPrint(booleanValue(value));
+          case "classDictionary" -> request.setClassDictionary(
+            booleanValue(value)
+          );
+          case "packedLocations" -> request.setPackedLocations(
+            booleanValue(value)
+          );
+          case "references" -> request.setReferences(booleanValue(value));
+          default -> {}
+        }
+        parser.skipChildren();
+      }
+    }
+    return request;
+  }
+
+  private static Boolean booleanValue(JsonToken token) {
+    return token.isBoolean() ? token == JsonToken.VALUE_TRUE : null;
+  }
 }
@@ -0,0 +1,306 @@
+package net.dangmai.serializer.server;
+
+import apex.jorje.semantic.compiler.parser.ParserOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import net.dangmai.serializer.Apex;
+import net.dangmai.serializer.OutputOptions;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.io.function.IOFunction;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * In-memory metrics of the AST endpoints, served at {@code /api/metrics} in
+ * the Prometheus text format: how long each {@link Phase} of a request takes,
+ * how large request and response bodies are, and how many errors jorje
+ * reports, by type.
+ *
+ * <p>Timings and sizes are recorded into HDR histograms, which recording
+ * threads update without locking, and are exposed as summaries with a fixed
+ * set of quantiles. Everything accumulates from server start.
+ */
+public final class ServerMetrics {
+
+  /** The servlet context attribute the server publishes its metrics under. */
+  public static final String ATTRIBUTE = ServerMetrics.class.getName();
+
+  /** The media type of the Prometheus text exposition format. */
+  public static final String MEDIA_TYPE =
+    "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+  /** The phases of handling a request that are timed separately. */
+  public enum Phase {
+    /** Reading and decoding the request body. */
+    READ,
+    /** Parsing with jorje, including any wait for a parse slot. */
+    PARSE,
+    /** Serializing the AST into the response, which streams it out. */
+    SERIALIZE,
+    /** Writing a response that was already serialized, from the cache. */
+    WRITE;
+
+    private final String label = name().toLowerCase(Locale.ROOT);
+  }
+
+  private final Map<Phase, Summary> phases = new EnumMap<>(Phase.class);
+  private final Summary requestBytes = new Summary();
+  private final Summary responseBytes = new Summary();
+  private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+  public ServerMetrics() {
+    for (Phase phase : Phase.values()) {
+      phases.put(phase, new Summary());
+    }
+  }
+
+  /**
+   * Records a phase that started at {@code startNs}, a
+   * {@link System#nanoTime} reading, and ends now.
+   *
+   * @return the current {@link System#nanoTime}, where the next phase starts
+   */
+  public long recordPhase(Phase phase, long startNs) {
+    return recordPhase(phase, startNs, null);
+  }
+
+  /**
+   * Like {@link #recordPhase(Phase, long)}, also adding the phase to the
+   * response's {@code timing}, unless it is {@code null}.
+   */
+  public long recordPhase(Phase phase, long startNs, ServerTiming timing) {
+    long endNs = System.nanoTime();
+    phases.get(phase).record(endNs - startNs);
+    if (timing != null) {
+      timing.add(phase.label, endNs - startNs);
+    }
+    return endNs;
+  }
+
+  /**
+   * Reads a request body with {@code reader}, recording the {@link Phase#READ}
+   * phase (also in {@code timing}, unless it is {@code null}, as are the
+   * methods below) and the size of the body.
+   */
+  public <T> T read(
+    InputStream body,
+    IOFunction<InputStream, T> reader,
+    ServerTiming timing
+  ) throws IOException {
+    long startNs = System.nanoTime();
+    BoundedInputStream countingBody = BoundedInputStream.builder()
+      .setInputStream(body)
+      .get();
+    try {
+      return reader.apply(countingBody);
+    } finally {
+      recordPhase(Phase.READ, startNs, timing);
+      recordRequestBytes(countingBody.getCount());
+    }
+  }
+
+  /**
+   * Parses like {@link Apex#parse}, through {@code limiter} unless it is
+   * {@code null}, recording the {@link Phase#PARSE} phase and the errors
+   * jorje reports or throws.
+   */
+  public ParserOutput parse(
+    ParseLimiter limiter,
+    boolean anonymous,
+    String sourceCode,
+    ServerTiming timing
+  ) {
+    long startNs = System.nanoTime();
+    ParserOutput output;
+    try {
+      output = limiter != null
+        ? limiter.parse(anonymous, sourceCode)
+        : Apex.parse(anonymous, sourceCode);
+    } catch (RuntimeException e) {
+      recordError(e);
+      throw e;
+    } finally {
+      recordPhase(Phase.PARSE, startNs, timing);
+    }
+    recordErrors(output);
+    return output;
+  }
+
+  /**
+   * Serializes like {@link Apex#serialize}, recording the
+   * {@link Phase#SERIALIZE} phase and the size of the output.
+   */
+  public void serialize(
+    ParserOutput output,
+    OutputOptions options,
+    OutputStream outputStream,
+    ServerTiming timing
+  ) {
+    long startNs = System.nanoTime();
+    CountingOutputStream countingStream = new CountingOutputStream(
+      outputStream
+    );
+    try {
+      Apex.serialize(output, options, countingStream);
+    } finally {
+      recordPhase(Phase.SERIALIZE, startNs, timing);
+      recordResponseBytes(countingStream.getByteCount());
+    }
+  }
+
+  /**
+   * Writes an already serialized response, recording the {@link Phase#WRITE}
+   * phase and its size.
+   */
+  public void write(
+    byte[] payload,
+    OutputStream outputStream,
+    ServerTiming timing
+  ) throws IOException {
+    long startNs = System.nanoTime();
+    try {
+      outputStream.write(payload);
+      outputStream.flush();
+    } finally {
+      recordPhase(Phase.WRITE, startNs, timing);
+      recordResponseBytes(payload.length);
+    }
+  }
+
+  public void recordRequestBytes(long bytes) {
+    requestBytes.record(bytes);
+  }
+
+  public void recordResponseBytes(long bytes) {
+    responseBytes.record(bytes);
+  }
+
+  /** Counts the syntax errors jorje reported in {@code output}. */
+  public void recordErrors(ParserOutput output) {
+    for (Object error : output.getParseErrors()) {
+      recordError(error);
+    }
+  }
+
+  /** Counts an exception jorje threw, or a syntax error it reported. */
+  public void recordError(Object error) {
+    String type = error.getClass().getSimpleName();
+    errors.computeIfAbsent(type, key -> new LongAdder()).increment();
+  }
+
+  /** Writes every metric in the Prometheus text exposition format. */
+  public void writePrometheus(Appendable out) throws IOException {
+    out.append(
+      "# HELP apex_ast_phase_seconds Time spent in each phase of AST requests.\n"
+    );
+    out.append("# TYPE apex_ast_phase_seconds summary\n");
+    for (Map.Entry<Phase, Summary> entry : phases.entrySet()) {
+      entry
+        .getValue()
+        .write(
+          out,
+          "apex_ast_phase_seconds",
+          "phase=\"" + entry.getKey().label + "\"",
+          1e-9
+        );
+    }
+    writeSummary(
+      out,
+      "apex_ast_request_bytes",
+      "Size of AST request bodies.",
+      requestBytes
+    );
+    writeSummary(
+      out,
+      "apex_ast_response_bytes",
+      "Size of AST response bodies.",
+      responseBytes
+    );
+    out.append(
+      "# HELP apex_ast_errors_total Errors jorje reported or threw, by type.\n"
+    );
+    out.append("# TYPE apex_ast_errors_total counter\n");
+    // Sorted, so the output is stable from one scrape to the next.
+    Map<String, LongAdder> sortedErrors = new TreeMap<>(errors);
+    for (Map.Entry<String, LongAdder> entry : sortedErrors.entrySet()) {
+      out
+        .append("apex_ast_errors_total{type=\"")
+        .append(entry.getKey())
+        .append("\"} ")
+        .append(Long.toString(entry.getValue().sum()))
+        .append('\n');
+    }
+  }
+
+  private static void writeSummary(
+    Appendable out,
+    String name,
+    String help,
+    Summary summary
+  ) throws IOException {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(" summary\n");
+    summary.write(out, name, null, 1);
+  }
+
+  private static final class Summary {
+
+    // Auto-resizing, so values of any magnitude can be recorded.
+    private final ConcurrentHistogram histogram = new ConcurrentHistogram(3);
+    private final LongAdder sum = new LongAdder();
+
+    void record(long value) {
+      histogram.recordValue(value);
+      sum.add(value);
+    }
+
+    /**
+     * Writes the summary's quantiles, sum and count, with every value
+     * multiplied by {@code scale}.
+     */
+    void write(Appendable out, String name, String labels, double scale)
+      throws IOException {
+      // Read from a copy, so the quantiles and count are consistent.
+      Histogram snapshot = histogram.copy();
+      String prefix = labels != null ? labels + "," : "";
+      for (double quantile : QUANTILES) {
+        out
+          .append(name)
+          .append('{')
+          .append(prefix)
+          .append("quantile=\"")
+          .append(Double.toString(quantile))
+          .append("\"} ")
+          .append(
+            Double.toString(
+              snapshot.getValueAtPercentile(quantile * 100) * scale
+            )
+          )
+          .append('\n');
+      }
+      String suffix = labels != null ? "{" + labels + "} " : " ";
+      out
+        .append(name)
+        .append("_sum")
+        .append(suffix)
+        .append(Double.toString(sum.sum() * scale))
+        .append('\n');
+      out
+        .append(name)
+        .append("_count")
+        .append(suffix)
+        .append(Long.toString(snapshot.getTotalCount()))
+        .append('\n');
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package net.dangmai.serializer.server;
+
+import java.util.Locale;
+
+/**
+ * The <a href="https://www.w3.org/TR/server-timing/">Server-Timing</a>
+ * entries of one response, e.g. {@code read;dur=0.081, parse;dur=3.402}, in
+ * milliseconds.
+ *
+ * <p>Phases that finish before the response starts go in the header. The AST
+ * is serialized while the body is being sent, so its duration can only follow
+ * in a trailer; {@link #take} hands out the entries added since it was last
+ * called, so each ends up in exactly one of the two.
+ */
+public final class ServerTiming {
+
+  public static final String HEADER = "Server-Timing";
+
+  private final StringBuilder entries = new StringBuilder();
+
+  /** Adds a phase that took {@code durationNs} nanoseconds. */
+  public synchronized void add(String name, long durationNs) {
+    separate();
+    entries
+      .append(name)
+      .append(";dur=")
+      .append(String.format(Locale.ROOT, "%.3f", durationNs / 1e6));
+  }
+
+  /** Adds an entry without a duration, e.g. {@code cache;desc=hit}. */
+  public synchronized void add(String name, String description) {
+    separate();
+    entries.append(name).append(";desc=").append(description);
+  }
+
+  /**
+   * Returns the entries added since the last call, as a header value, which is
+   * empty if there are none.
+   */
+  public synchronized String take() {
+    String value = entries.toString();
+    entries.setLength(0);
+    return value;
+  }
+
+  private void separate() {
+    if (entries.length() > 0) {
+      entries.append(", ");
+    }
+  }
+}
@@ -1,36 +1,196 @@
 package net.dangmai.serializer.server.resources;
 
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import java.io.*;
-import net.dangmai.serializer.Apex;
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import net.dangmai.serializer.server.AstBatch;
+import net.dangmai.serializer.server.AstCache;
+import net.dangmai.serializer.server.AstService;
+import net.dangmai.serializer.server.ParseLimiter;
 import net.dangmai.serializer.server.Request;
+import net.dangmai.serializer.server.ServerMetrics;
+import net.dangmai.serializer.server.ServerTiming;
 
 @Path("/")
 public class AbstractSyntaxTreeResource {
 
+  @Context
+  private ServletContext servletContext;
+
+  @Context
+  private HttpServletResponse servletResponse;
+
   @GET
   @Produces(MediaType.TEXT_PLAIN)
   public String healthCheck() {
     return "Server up and running";
   }
 
+  /**
+   * Parses a JSON {@link Request}. The body is read with Jackson's streaming
+   * parser rather than through Jersey's databinding, so the time it takes is
+   * measured like the rest of the request.
+   */
+  @POST
+  public Response parse(InputStream body) {
+    ServerTiming timing = new ServerTiming();
+    Request request;
+    try {
+      request = metrics().read(body, Request::read, timing);
+    } catch (IOException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+    return respond(request, timing);
+  }
+
+  private Response respond(Request request, ServerTiming timing) {
+    AstService.Answer answer;
+    try {
+      answer = service().answer(request, timing);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+    // The AST is serialized straight into the response body. Jersey doesn't
+    // buffer it to compute a Content-Length (see HttpServer), so anything past
+    // Jetty's response buffer goes out chunked.
+    StreamingOutput entity = outputStream ->
+      answer.writeTo(outputStream, timing);
+    Response.ResponseBuilder response = Response.status(200)
+      .entity(entity)
+      .type(answer.mediaType());
+    if (answer.cacheStatus() != null) {
+      response.header(AstCache.HEADER, answer.cacheStatus());
+    }
+    return withTiming(response, timing);
+  }
+
+  /**
+   * Sends the timings recorded so far as a header, and those recorded while
+   * the entity is written as a trailer, where the protocol allows one.
+   */
+  private Response withTiming(
+    Response.ResponseBuilder response,
+    ServerTiming timing
+  ) {
+    try {
+      servletResponse.setTrailerFields(() ->
+        Map.of(ServerTiming.HEADER, timing.take())
+      );
+      response.header("Trailer", ServerTiming.HEADER);
+    } catch (IllegalStateException e) {
+      // HTTP/1.0 has no trailers.
+    }
+    return response.header(ServerTiming.HEADER, timing.take()).build();
+  }
+
+  /**
+   * Like {@link #parse}, but takes the source code as the plain text request
+   * body and the options as query parameters, so it needn't be JSON-escaped
+   * on the client and decoded again here.
+   */
   @POST
-  public Response parse(Request request) throws Exception {
-    Reader reader = new StringReader(request.getSourceCode());
-    Writer writer = new StringWriter();
-    Boolean anonymous = request.getAnonymous();
-    Boolean prettyPrint = request.getPrettyPrint();
-
-    Apex.getAST(anonymous, prettyPrint, reader, writer);
-
-    return Response.status(200)
-      .entity(writer.toString())
-      .type(MediaType.APPLICATION_JSON)
-      .build();
+  @Path("raw")
+  @Consumes(MediaType.TEXT_PLAIN)
+  public Response parseRaw(
+    InputStream body,
+    @HeaderParam(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+    @QueryParam("anonymous") Boolean anonymous,
+    @QueryParam("format") String format,
+    @QueryParam("prettyPrint") Boolean prettyPrint,
+    @QueryParam("classDictionary") Boolean classDictionary,
+    @QueryParam("profile") String profile,
+    @QueryParam("packedLocations") Boolean packedLocations,
+    @QueryParam("references") Boolean references
+  ) {
+    String charset = contentType != null
+      ? contentType.getParameters().get(MediaType.CHARSET_PARAMETER)
+      : null;
+    ServerTiming timing = new ServerTiming();
+    Request request = new Request();
+    try {
+      request.setSourceCode(
+        metrics().read(
+          body,
+          in ->
+            new String(
+              in.readAllBytes(),
+              charset != null
+                ? Charset.forName(charset)
+                : StandardCharsets.UTF_8
+            ),
+          timing
+        )
+      );
+    } catch (IOException | IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+    request.setAnonymous(anonymous);
+    request.setFormat(format);
+    request.setPrettyPrint(prettyPrint);
+    request.setClassDictionary(classDictionary);
+    request.setProfile(profile);
+    request.setPackedLocations(packedLocations);
+    request.setReferences(references);
+    return respond(request, timing);
+  }
+
+  /**
+   * Parses a JSON array of sources concurrently, streaming back one
+   * newline-delimited result per source as each completes; see
+   * {@link AstBatch}.
+   */
+  @POST
+  @Path("batch")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(AstBatch.MEDIA_TYPE)
+  public StreamingOutput parseBatch(InputStream body) {
+    try {
+      return AstBatch.start(
+        body,
+        (Executor) servletContext.getAttribute(AstBatch.EXECUTOR_ATTRIBUTE),
+        (ParseLimiter) servletContext.getAttribute(ParseLimiter.ATTRIBUTE),
+        metrics()
+      )::writeTo;
+    } catch (IOException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+  }
+
+  @GET
+  @Path("cache")
+  @Produces(MediaType.APPLICATION_JSON)
+  public AstCache.Stats cacheStats() {
+    AstCache cache = service().cache();
+    if (cache == null) {
+      throw new NotFoundException("The AST cache is disabled");
+    }
+    return cache.stats();
+  }
+
+  private AstService service() {
+    return (AstService) servletContext.getAttribute(AstService.ATTRIBUTE);
+  }
+
+  private ServerMetrics metrics() {
+    return (ServerMetrics) servletContext.getAttribute(ServerMetrics.ATTRIBUTE);
   }
 }
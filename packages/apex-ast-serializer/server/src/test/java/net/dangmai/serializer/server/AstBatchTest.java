@@ -0,0 +1,62 @@
+package net.dangmai.serializer.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class AstBatchTest {
+
+  private static final String ITEM =
+    "{\"id\": \"a\", \"sourceCode\": \"class A {}\"}";
+
+  private static InputStream body(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String prometheus(ServerMetrics metrics) throws Exception {
+    StringBuilder text = new StringBuilder();
+    metrics.writePrometheus(text);
+    return text.toString();
+  }
+
+  @Test
+  void writesAFramePerItem() throws Exception {
+    List<Runnable> submitted = new ArrayList<>();
+    AstBatch batch = AstBatch.start(
+      body("[" + ITEM + ", " + ITEM + "]"),
+      submitted::add,
+      null,
+      new ServerMetrics()
+    );
+    submitted.forEach(Runnable::run);
+
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    batch.writeTo(response);
+    String[] frames = response.toString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(2, frames.length);
+  }
+
+  @Test
+  void skipsTheItemsOfAMalformedBatch() throws Exception {
+    List<Runnable> submitted = new ArrayList<>();
+    ServerMetrics metrics = new ServerMetrics();
+    assertThrows(JsonParseException.class, () ->
+      AstBatch.start(body("[" + ITEM + ", 1]"), submitted::add, null, metrics)
+    );
+    assertEquals(1, submitted.size());
+    submitted.forEach(Runnable::run);
+
+    String text = prometheus(metrics);
+    assertTrue(
+      text.contains("apex_ast_phase_seconds_count{phase=\"parse\"} 0\n"),
+      text
+    );
+  }
+}
@@ -0,0 +1,67 @@
+package net.dangmai.serializer.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class AstCacheTest {
+
+  @Test
+  void evictsLeastRecentlyUsedEntriesBeyondMaxBytes() {
+    AstCache cache = new AstCache(10);
+    cache.put("a", new byte[4]);
+    cache.put("b", new byte[4]);
+    // Touch "a" so "b" becomes the least recently used entry.
+    assertNotNull(cache.get("a"));
+    cache.put("c", new byte[4]);
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    AstCache.Stats stats = cache.stats();
+    assertEquals(2, stats.entries());
+    assertEquals(8, stats.bytes());
+    assertEquals(1, stats.evictions());
+    assertEquals(3, stats.hits());
+    assertEquals(1, stats.misses());
+  }
+
+  @Test
+  void skipsPayloadsLargerThanTheWholeCache() {
+    AstCache cache = new AstCache(10);
+    cache.put("a", new byte[11]);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.stats().bytes());
+  }
+
+  @Test
+  void replacingAnEntryReplacesItsSize() {
+    AstCache cache = new AstCache(10);
+    cache.put("a", new byte[4]);
+    cache.put("a", new byte[6]);
+    assertEquals(6, cache.stats().bytes());
+    assertEquals(1, cache.stats().entries());
+  }
+
+  @Test
+  void capturesPayloadsThatFit() {
+    AstCache cache = new AstCache(10);
+    AstCache.Capture capture = cache.capture();
+    capture.write(new byte[6], 0, 6);
+    capture.write(1);
+    cache.put("a", capture);
+    assertEquals(7, cache.get("a").length);
+  }
+
+  @Test
+  void stopsCapturingPayloadsLargerThanTheWholeCache() {
+    AstCache cache = new AstCache(10);
+    AstCache.Capture capture = cache.capture();
+    capture.write(new byte[8], 0, 8);
+    capture.write(new byte[8], 0, 8);
+    capture.write(1);
+    cache.put("a", capture);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.stats().entries());
+  }
+}
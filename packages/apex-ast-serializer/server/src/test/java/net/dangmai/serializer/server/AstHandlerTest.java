@@ -0,0 +1,131 @@
+package net.dangmai.serializer.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import net.dangmai.serializer.TestUtilities;
+import net.dangmai.serializer.sink.AstProfile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class AstHandlerTest {
+
+  private static final String URL = "http://localhost:58868/api/ast";
+
+  @BeforeAll
+  public static void startServer() throws Exception {
+    Thread serverThread = new Thread(() -> {
+      try {
+        HttpServer.main(
+          new String[] { "-p", "58868", "-l", "-m", "10000000" }
+        );
+      } catch (Exception ex) {
+        throw new RuntimeException("Exception caught in lambda", ex);
+      }
+    });
+    serverThread.start();
+    Thread.sleep(3000); // so that the server can be brought up before tests are run
+  }
+
+  @Test
+  void shouldReadRequestFields() throws Exception {
+    Request request = Request.read(
+      new ByteArrayInputStream(
+        ("{\"sourceCode\": \"class A {}\", \"unknown\": {\"nested\": [1]}," +
+          " \"anonymous\": true, \"prettyPrint\": null, \"format\": \"smile\"," +
+          " \"profile\": \"printer\"}")
+          .getBytes(StandardCharsets.UTF_8)
+      )
+    );
+    assertEquals("class A {}", request.getSourceCode());
+    assertEquals(Boolean.TRUE, request.getAnonymous());
+    assertNull(request.getPrettyPrint());
+    assertEquals("smile", request.getFormat());
+    assertEquals(AstProfile.PRINTER, request.outputOptions().profile());
+  }
+
+  @Test
+  void shouldSkipFieldsOfTheWrongType() throws Exception {
+    Request request = Request.read(
+      new ByteArrayInputStream(
+        ("{\"sourceCode\": {\"anonymous\": true}, \"anonymous\": [true]," +
+          " \"prettyPrint\": true}")
+          .getBytes(StandardCharsets.UTF_8)
+      )
+    );
+    assertNull(request.getSourceCode());
+    assertNull(request.getAnonymous());
+    assertEquals(Boolean.TRUE, request.getPrettyPrint());
+  }
+
+  @Test
+  void shouldRejectNonObjectRequest() {
+    assertThrows(JsonParseException.class, () ->
+      Request.read(
+        new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8))
+      )
+    );
+  }
+
+  @Test
+  void shouldAnswerHealthCheck() throws Exception {
+    HttpURLConnection con = (HttpURLConnection) new URL(URL).openConnection();
+    assertEquals(200, con.getResponseCode());
+  }
+
+  @Test
+  void shouldGetJsonFromApexFile() throws Exception {
+    File file = TestUtilities.getApexTestFile("AnnotatedClass.cls");
+    String body = TestUtilities.createJsonRequest(
+      "json",
+      false,
+      file
+    ).toString();
+    HttpURLConnection con = post(body);
+    assertEquals(200, con.getResponseCode());
+    assertEquals("MISS", con.getHeaderField(AstCache.HEADER));
+    String timing = con.getHeaderField(ServerTiming.HEADER);
+    assertTrue(
+      timing.matches("read;dur=[0-9.]+, parse;dur=[0-9.]+"),
+      timing
+    );
+    String content = new String(
+      con.getInputStream().readAllBytes(),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(
+      TestUtilities.isJSONValid(content),
+      "Content should be valid JSON"
+    );
+
+    HttpURLConnection repeated = post(body);
+    assertEquals("HIT", repeated.getHeaderField(AstCache.HEADER));
+    assertTrue(
+      repeated.getHeaderField(ServerTiming.HEADER).endsWith(", cache;desc=hit")
+    );
+    assertEquals(
+      content,
+      new String(
+        repeated.getInputStream().readAllBytes(),
+        StandardCharsets.UTF_8
+      )
+    );
+  }
+
+  private static HttpURLConnection post(String body) throws Exception {
+    HttpURLConnection con = (HttpURLConnection) new URL(URL).openConnection();
+    con.setRequestMethod("POST");
+    con.setRequestProperty("Content-Type", "application/json");
+    con.setDoOutput(true);
+    try (OutputStream os = con.getOutputStream()) {
+      os.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return con;
+  }
+}
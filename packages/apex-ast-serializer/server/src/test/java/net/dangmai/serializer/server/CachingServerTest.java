@@ -0,0 +1,76 @@
+package net.dangmai.serializer.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** The Jersey server with its AST cache on; see {@link ServerTest}. */
+public class CachingServerTest {
+
+  @BeforeAll
+  public static void startServer() throws Exception {
+    Thread serverThread = new Thread(() -> {
+      try {
+        HttpServer.main(new String[] { "-p", "58869", "-m", "10000000" });
+      } catch (Exception ex) {
+        throw new RuntimeException("Exception caught in lambda", ex);
+      }
+    });
+    serverThread.start();
+    Thread.sleep(3000); // so that the server can be brought up before tests are run
+  }
+
+  @Test
+  void shouldServeRepeatedRequestsFromCache() throws Exception {
+    // A source no other test sends, so the first request is always a miss.
+    String request =
+      "{\"anonymous\": false, \"sourceCode\": \"public class CacheTest {}\"}";
+
+    HttpURLConnection first = post(request);
+    assertEquals(200, first.getResponseCode());
+    assertEquals("MISS", first.getHeaderField("X-Apex-Cache"));
+    String timing = first.getHeaderField("Server-Timing");
+    assertTrue(
+      timing.matches("read;dur=[0-9.]+, parse;dur=[0-9.]+"),
+      timing
+    );
+    byte[] firstBody = first.getInputStream().readAllBytes();
+
+    HttpURLConnection second = post(request);
+    assertEquals(200, second.getResponseCode());
+    assertEquals("HIT", second.getHeaderField("X-Apex-Cache"));
+    assertTrue(
+      second.getHeaderField("Server-Timing").endsWith(", cache;desc=hit")
+    );
+    assertArrayEquals(firstBody, second.getInputStream().readAllBytes());
+
+    HttpURLConnection stats = (HttpURLConnection) new URL(
+      "http://localhost:58869/api/ast/cache"
+    ).openConnection();
+    JsonNode json = new ObjectMapper().readTree(stats.getInputStream());
+    assertTrue(json.get("hits").asLong() >= 1, () -> "Should count hits: " + json);
+    assertTrue(
+      json.get("misses").asLong() >= 1,
+      () -> "Should count misses: " + json
+    );
+  }
+
+  private static HttpURLConnection post(String body) throws Exception {
+    URL url = new URL("http://localhost:58869/api/ast/");
+    HttpURLConnection con = (HttpURLConnection) url.openConnection();
+    con.setRequestMethod("POST");
+    con.setRequestProperty("Content-Type", "application/json");
+    con.setDoOutput(true);
+    try (OutputStream os = con.getOutputStream()) {
+      os.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return con;
+  }
+}
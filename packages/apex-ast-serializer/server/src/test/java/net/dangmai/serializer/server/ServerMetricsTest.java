@@ -0,0 +1,102 @@
+package net.dangmai.serializer.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class ServerMetricsTest {
+
+  @Test
+  void shouldExposeRecordedPhasesAsSummaries() throws Exception {
+    ServerMetrics metrics = new ServerMetrics();
+    long startNs = System.nanoTime() - 2_000_000;
+    metrics.recordPhase(ServerMetrics.Phase.PARSE, startNs);
+    metrics.write(new byte[10], new ByteArrayOutputStream(), null);
+
+    String text = prometheus(metrics);
+    assertTrue(
+      text.contains("# TYPE apex_ast_phase_seconds summary\n"),
+      text
+    );
+    assertTrue(
+      text.contains("apex_ast_phase_seconds_count{phase=\"parse\"} 1\n"),
+      text
+    );
+    assertTrue(
+      text.contains("apex_ast_phase_seconds_count{phase=\"write\"} 1\n"),
+      text
+    );
+    assertTrue(
+      text.contains("apex_ast_phase_seconds_count{phase=\"read\"} 0\n"),
+      text
+    );
+    assertTrue(text.contains("apex_ast_response_bytes_sum 10.0\n"), text);
+  }
+
+  @Test
+  void shouldCountRequestBytesAsTheyAreRead() throws Exception {
+    ServerMetrics metrics = new ServerMetrics();
+    byte[] body = "{\"sourceCode\": \"class A {}\"}".getBytes(
+      StandardCharsets.UTF_8
+    );
+    Request request = metrics.read(
+      new ByteArrayInputStream(body),
+      Request::read,
+      null
+    );
+    assertEquals("class A {}", request.getSourceCode());
+    assertTrue(
+      prometheus(metrics).contains(
+        "apex_ast_request_bytes_sum " + (double) body.length + "\n"
+      )
+    );
+  }
+
+  @Test
+  void shouldAddPhasesToServerTiming() throws Exception {
+    ServerMetrics metrics = new ServerMetrics();
+    ServerTiming timing = new ServerTiming();
+    metrics.recordPhase(
+      ServerMetrics.Phase.PARSE,
+      System.nanoTime() - 2_000_000,
+      timing
+    );
+    timing.add("cache", "miss");
+    String header = timing.take();
+    assertTrue(
+      header.matches("parse;dur=\\d+\\.\\d{3}, cache;desc=miss"),
+      header
+    );
+
+    metrics.write(new byte[10], new ByteArrayOutputStream(), timing);
+    assertTrue(timing.take().matches("write;dur=\\d+\\.\\d{3}"));
+    assertEquals("", timing.take());
+  }
+
+  @Test
+  void shouldCountErrorsByType() throws Exception {
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.recordError(new IllegalStateException());
+    metrics.recordError(new IllegalStateException());
+    metrics.recordError(new NullPointerException());
+
+    String text = prometheus(metrics);
+    assertTrue(
+      text.contains("apex_ast_errors_total{type=\"IllegalStateException\"} 2\n"),
+      text
+    );
+    assertTrue(
+      text.contains("apex_ast_errors_total{type=\"NullPointerException\"} 1\n"),
+      text
+    );
+  }
+
+  private static String prometheus(ServerMetrics metrics) throws Exception {
+    StringBuilder text = new StringBuilder();
+    metrics.writePrometheus(text);
+    return text.toString();
+  }
+}
@@ -0,0 +1,181 @@
+package net.dangmai.serializer.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import net.dangmai.serializer.TestUtilities;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * The AST endpoints both front ends serve, run against the Jersey resource
+ * and the lightweight {@link AstHandler} alike; see {@link ServerTest} and
+ * {@link AstHandlerTest} for what only one of them does.
+ */
+public class ServerModesTest {
+
+  enum Mode {
+    JERSEY(58870),
+    LIGHTWEIGHT(58871, "-l");
+
+    private final int port;
+    private final String[] options;
+
+    Mode(int port, String... options) {
+      this.port = port;
+      this.options = options;
+    }
+
+    String url(String path) {
+      return "http://localhost:" + port + "/api/ast" + path;
+    }
+  }
+
+  @BeforeAll
+  public static void startServers() throws Exception {
+    for (Mode mode : Mode.values()) {
+      String[] args = new String[mode.options.length + 2];
+      args[0] = "-p";
+      args[1] = String.valueOf(mode.port);
+      System.arraycopy(mode.options, 0, args, 2, mode.options.length);
+      Thread serverThread = new Thread(() -> {
+        try {
+          HttpServer.main(args);
+        } catch (Exception ex) {
+          throw new RuntimeException("Exception caught in lambda", ex);
+        }
+      });
+      serverThread.start();
+    }
+    Thread.sleep(3000); // so that the servers can be brought up before tests are run
+  }
+
+  @ParameterizedTest
+  @EnumSource(Mode.class)
+  void shouldGetJsonFromRawSourceCode(Mode mode) throws Exception {
+    HttpURLConnection con = postRaw(
+      mode,
+      "?anonymous=true",
+      "text/plain; charset=utf-8"
+    );
+    assertEquals(200, con.getResponseCode());
+    String content = new String(
+      con.getInputStream().readAllBytes(),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(
+      TestUtilities.isJSONValid(content),
+      "Content should be valid JSON"
+    );
+  }
+
+  @ParameterizedTest
+  @EnumSource(Mode.class)
+  void shouldRejectRawSourceCodeInAnUnknownCharset(Mode mode)
+    throws Exception {
+    HttpURLConnection con = postRaw(
+      mode,
+      "",
+      "text/plain; charset=no-such-charset"
+    );
+    assertEquals(400, con.getResponseCode());
+  }
+
+  @ParameterizedTest
+  @EnumSource(Mode.class)
+  void shouldParseBatchConcurrently(Mode mode) throws Exception {
+    HttpURLConnection con = post(
+      mode,
+      "/batch",
+      "[{\"id\": \"a\", \"sourceCode\": \"public class A {}\"}," +
+        " {\"id\": \"b\", \"sourceCode\": \"System.debug(1);\"," +
+        " \"anonymous\": true}, {\"id\": \"c\"}]"
+    );
+    assertEquals(200, con.getResponseCode());
+    ObjectMapper mapper = new ObjectMapper();
+    Map<String, JsonNode> frames = new HashMap<>();
+    try (
+      BufferedReader reader = new BufferedReader(
+        new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8)
+      )
+    ) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        JsonNode frame = mapper.readTree(line);
+        frames.put(frame.get("id").asText(), frame);
+      }
+    }
+    assertEquals(Set.of("a", "b", "c"), frames.keySet());
+    assertTrue(frames.get("a").has("ast"));
+    assertTrue(frames.get("b").has("ast"));
+    assertTrue(frames.get("c").has("error"));
+  }
+
+  @ParameterizedTest
+  @EnumSource(Mode.class)
+  void shouldRejectBatchThatIsNotAnArray(Mode mode) throws Exception {
+    assertEquals(400, post(mode, "/batch", "{}").getResponseCode());
+  }
+
+  @ParameterizedTest
+  @EnumSource(Mode.class)
+  void shouldRejectRequestWithoutSourceCode(Mode mode) throws Exception {
+    assertEquals(
+      400,
+      post(mode, "", "{\"anonymous\": false}").getResponseCode()
+    );
+  }
+
+  @ParameterizedTest
+  @EnumSource(Mode.class)
+  void shouldRejectUnknownFormat(Mode mode) throws Exception {
+    assertEquals(
+      400,
+      post(mode, "", "{\"sourceCode\": \"class A {}\", \"format\": \"yaml\"}")
+        .getResponseCode()
+    );
+  }
+
+  private static HttpURLConnection post(Mode mode, String path, String body)
+    throws Exception {
+    return send(mode.url(path), "application/json", body);
+  }
+
+  private static HttpURLConnection postRaw(
+    Mode mode,
+    String query,
+    String contentType
+  ) throws Exception {
+    return send(
+      mode.url("/raw" + query),
+      contentType,
+      "System.debug('\u00e9\"');"
+    );
+  }
+
+  private static HttpURLConnection send(
+    String url,
+    String contentType,
+    String body
+  ) throws Exception {
+    HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+    con.setRequestMethod("POST");
+    con.setRequestProperty("Content-Type", contentType);
+    con.setDoOutput(true);
+    try (OutputStream os = con.getOutputStream()) {
+      os.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return con;
+  }
+}
@@ -3,6 +3,9 @@ package net.dangmai.serializer.server;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import net.dangmai.serializer.TestUtilities;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -51,4 +54,59 @@ public class ServerTest {
       );
     });
   }
+
+  @Test
+  void shouldNotCacheByDefault() throws Exception {
+    HttpURLConnection con = post("{\"sourceCode\": \"class NoCache {}\"}");
+    assertEquals(200, con.getResponseCode());
+    assertNull(con.getHeaderField("X-Apex-Cache"));
+    String content = new String(
+      con.getInputStream().readAllBytes(),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(
+      TestUtilities.isJSONValid(content),
+      "Content should be valid JSON"
+    );
+
+    HttpURLConnection stats = (HttpURLConnection) new URL(
+      "http://localhost:58867/api/ast/cache"
+    ).openConnection();
+    assertEquals(404, stats.getResponseCode());
+  }
+
+  @Test
+  void shouldServePrometheusMetrics() throws Exception {
+    HttpURLConnection request = post("{\"sourceCode\": \"class Metrics {}\"}");
+    assertEquals(200, request.getResponseCode());
+
+    HttpURLConnection con = (HttpURLConnection) new URL(
+      "http://localhost:58867/api/metrics"
+    ).openConnection();
+    assertEquals(200, con.getResponseCode());
+    String text = new String(
+      con.getInputStream().readAllBytes(),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(
+      text.contains("apex_ast_phase_seconds_count{phase=\"parse\"}"),
+      text
+    );
+    assertFalse(
+      text.contains("apex_ast_phase_seconds_count{phase=\"parse\"} 0\n"),
+      text
+    );
+  }
+
+  private static HttpURLConnection post(String body) throws Exception {
+    URL url = new URL("http://localhost:58867/api/ast/");
+    HttpURLConnection con = (HttpURLConnection) url.openConnection();
+    con.setRequestMethod("POST");
+    con.setRequestProperty("Content-Type", "application/json");
+    con.setDoOutput(true);
+    try (OutputStream os = con.getOutputStream()) {
+      os.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return con;
+  }
 }
@@ -140,6 +140,13 @@ export const options: SupportOptions = {
     description:
       "Whether to insert one newline as the last thing in the output. Default to true.",
   },
+  apexCompactAst: {
+    type: "boolean",
+    category: CATEGORY_APEX,
+    default: false,
+    description:
+      "Ask the parser for a smaller AST, leaving out the fields the plugin never reads. Needs a parser from this version of the plugin or later; older HTTP servers fall back to the full AST. Default to false.",
+  },
 };
 
 export const defaultOptions = {};
@@ -12,4 +12,5 @@ export interface ApexParserOptions extends ParserOptions {
   apexStandalonePort: number;
   apexStandaloneProtocol: string;
   apexInsertFinalNewline: boolean;
+  apexCompactAst: boolean;
 }
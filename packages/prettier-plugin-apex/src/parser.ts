@@ -10,7 +10,12 @@ import {
   APEX_TYPES,
   TRAILING_EMPTY_LINE_AFTER_LAST_NODE,
 } from "./constants.js";
-import { perfMark, perfReadSpawnFile, perfSpawnFile } from "./perf.js";
+import {
+  perfMark,
+  perfReadServerTiming,
+  perfReadSpawnStats,
+  perfSpawnArgs,
+} from "./perf.js";
 import {
   type AnnotatedComment,
   type GenericComment,
@@ -74,15 +79,20 @@ async function parseTextWithSpawn(
   executable: string,
   text: string,
   anonymous: boolean,
+  compactAst: boolean,
 ): Promise<SpawnOutput> {
-  const args: string[] = [];
+  // Perf harness: the serializer reports its jorje-parse vs serialize timings
+  // on stderr, keeping the stdout payload untouched.
+  const args: string[] = perfSpawnArgs();
+  if (compactAst) {
+    // Leave out the fields this plugin never reads, pack the locations and
+    // refer back to repeated leaf nodes; resolveCompactEncodings expands them
+    // again. Older serializers reject these options, hence apexCompactAst.
+    args.push("--profile", "printer", "--packed-locations", "--references");
+  }
   if (anonymous) {
     args.push("-a");
   }
-  // Perf harness: a private temp file the serializer writes its jorje-parse vs
-  // serialize timings to ("" disables it). Read back after exit. Keeps the
-  // stdout payload untouched.
-  const perfFile = perfSpawnFile();
   return new Promise((resolve, reject) => {
     const spawnedProcess = childProcess.spawn(executable, args, {
       shell: true,
@@ -92,7 +102,6 @@ async function parseTextWithSpawn(
         // the DEBUG environment variable and will output verbose logs if it is set,
         // which will break the parser output.
         DEBUG: "",
-        APEX_PERF_FILE: perfFile,
       },
     });
     spawnedProcess.stdin.write(text);
@@ -108,7 +117,7 @@ async function parseTextWithSpawn(
     });
 
     spawnedProcess.on("close", (code) => {
-      perfReadSpawnFile(perfFile);
+      perfReadSpawnStats(stderr);
       if (code === 0) {
         resolve({ stdout, stderr });
       } else {
@@ -127,11 +136,34 @@ async function parseTextWithHttp(
   serverPort: number,
   serverProtocol: string,
   anonymous: boolean,
+  compactAst: boolean,
 ): Promise<string> {
+  const url = `${serverProtocol}://${serverHost}:${serverPort}/api/ast`;
   try {
-    const result = await fetch(
-      `${serverProtocol}://${serverHost}:${serverPort}/api/ast`,
-      {
+    let result: Response | undefined;
+    if (compactAst) {
+      // The raw endpoint takes the source as is, saving the JSON escaping of
+      // the whole class here and its decoding on the server. The printer
+      // profile leaves out the fields this plugin never reads, and the packed
+      // locations and references are expanded again by
+      // resolveCompactEncodings.
+      result = await fetch(
+        `${url}/raw?anonymous=${anonymous}&profile=printer&packedLocations=true&references=true`,
+        {
+          method: "POST",
+          headers: {
+            "Content-Type": "text/plain; charset=utf-8",
+          },
+          body: text,
+        },
+      );
+      // A server older than the raw endpoint; ask it for the full AST.
+      if (result.status === 404) {
+        result = undefined;
+      }
+    }
+    if (!result) {
+      result = await fetch(url, {
         method: "POST",
         headers: {
           "Content-Type": "application/json",
@@ -141,8 +173,9 @@ async function parseTextWithHttp(
           anonymous,
           prettyPrint: false,
         }),
-      },
-    );
+      });
+    }
+    perfReadServerTiming(result.headers.get("Server-Timing"));
     return await result.text();
   } catch (err) {
     throw new Error(
@@ -151,6 +184,102 @@ async function parseTextWithHttp(
   }
 }
 
+// A location as the serializer writes it with `--packed-locations`. The
+// printer profile leaves the column out, and `lineIndexVisitor` computes it.
+type PackedLocation = [
+  startIndex: number,
+  endIndex: number,
+  line: number,
+  column?: number,
+];
+
+// Whether a node has an object anywhere in it, looking through arrays; a
+// classed node without one is what the serializer calls a leaf node.
+function hasNestedObject(node: object): boolean {
+  for (const key in node) {
+    const value = (node as Record<string, unknown>)[key];
+    if (
+      value !== null &&
+      typeof value === "object" &&
+      (!Array.isArray(value) || hasNestedObject(value))
+    ) {
+      return true;
+    }
+  }
+  return false;
+}
+
+// A copy of a resolved leaf node for each place that refers to it, so that
+// the enrichment pass can annotate and fix up each one on its own.
+function copyLeaf(leaf: Record<string, unknown>): Record<string, unknown> {
+  const copy = { ...leaf };
+  for (const key in copy) {
+    const value = copy[key];
+    if (value !== null && typeof value === "object") {
+      copy[key] = Array.isArray(value) ? [...value] : { ...value };
+    }
+  }
+  return copy;
+}
+
+/**
+ * Undoes the serializer's compact encodings, leaving the tree the printer
+ * expects:
+ * - with its class dictionary (`--class-dictionary`), every `@class` is an
+ *   index into the document's trailing `@classes` table;
+ * - with `--packed-locations`, every location is a `PackedLocation` array.
+ *   Nothing else is written as an array of bare numbers (boxed scalars are
+ *   always `{"@class": ..., "$": ...}`), so those arrays are unambiguous;
+ * - with `--references`, every repeat of a leaf node (a classed node with no
+ *   objects in it) is `{"@ref": n}`, where n counts the leaf nodes written in
+ *   full before it, in document order.
+ */
+function resolveCompactEncodings(ast: SerializedAst): void {
+  const classes = ast["@classes"];
+  if (classes) {
+    delete ast["@classes"];
+  }
+  const leaves: Record<string, unknown>[] = [];
+  const resolve = (node: Record<string, unknown>): void => {
+    const classId = node["@class"];
+    // Checked before the packed locations in it are expanded into objects.
+    const leaf = classId !== undefined && !hasNestedObject(node);
+    if (classes && typeof classId === "number") {
+      node["@class"] = classes[classId];
+    }
+    // for...in: the nodes come from JSON.parse, so there are no inherited
+    // enumerable properties, and it covers array indexes too.
+    for (const key in node) {
+      const value = node[key];
+      if (value === null || typeof value !== "object") {
+        continue;
+      }
+      if (Array.isArray(value)) {
+        if (typeof value[0] === "number") {
+          const [startIndex, endIndex, line, column] = value as PackedLocation;
+          node[key] =
+            column === undefined
+              ? { startIndex, endIndex, line }
+              : { startIndex, endIndex, line, column };
+        } else {
+          resolve(value as unknown as Record<string, unknown>);
+        }
+        continue;
+      }
+      const ref = (value as { "@ref"?: number })["@ref"];
+      if (ref !== undefined) {
+        node[key] = copyLeaf(leaves[ref]!);
+      } else {
+        resolve(value as Record<string, unknown>);
+      }
+    }
+    if (leaf) {
+      leaves.push(node);
+    }
+  };
+  resolve(ast);
+}
+
 // jorje calls the location node differently for different types of nodes,
 // so we use this method to abstract away that difference
 function getNodeLocation(node: AstNode): NodeLocation | null {
@@ -958,6 +1087,7 @@ export default async function parse(
       options.apexStandalonePort,
       options.apexStandaloneProtocol,
       options.parser === "apex-anonymous",
+      options.apexCompactAst,
     );
   } else if (options.apexStandaloneParser === "native") {
     const serializerBin = await getNativeExecutableWithFallback();
@@ -966,6 +1096,7 @@ export default async function parse(
         serializerBin,
         sourceCode,
         options.parser === "apex-anonymous",
+        options.apexCompactAst,
       )
     ).stdout;
   } else {
@@ -977,6 +1108,7 @@ export default async function parse(
         ),
         sourceCode,
         options.parser === "apex-anonymous",
+        options.apexCompactAst,
       )
     ).stdout;
   }
@@ -984,6 +1116,7 @@ export default async function parse(
   perfMark("transportEnd");
   if (serializedAst) {
     const ast: SerializedAst = JSON.parse(serializedAst);
+    resolveCompactEncodings(ast);
     // Perf harness boundary: end of "deserialize" (JSON.parse), start of
     // "prepping" (comment extraction, line indexes, and the DFS enrichment).
     perfMark("deserializeEnd");
@@ -1,7 +1,3 @@
-import crypto from "node:crypto";
-import fs from "node:fs";
-import os from "node:os";
-import path from "node:path";
 import { performance } from "node:perf_hooks";
 
 // Env-gated performance instrumentation for the benchmark harness.
@@ -34,33 +30,45 @@ export function perfGetMarks(): PerfMarks {
   return { ...marks };
 }
 
-// Returns a unique temp-file path for the serializer to write its Java-side
-// timings to, or "" when benchmarking is disabled. Passed to the spawned
-// process as APEX_PERF_FILE; the serializer ignores an empty value. A unique
-// path per call keeps concurrent formats from colliding.
-export function perfSpawnFile(): string {
-  if (!process.env["APEX_PERF"]) return "";
-  return path.join(os.tmpdir(), `apex-perf-${crypto.randomUUID()}.json`);
+// Returns the serializer arguments that make it report its Java-side timings:
+// `--perf-stats`, which writes them as a line of JSON on stderr after the AST,
+// or nothing when benchmarking is disabled.
+export function perfSpawnArgs(): string[] {
+  return process.env["APEX_PERF"] ? ["--perf-stats"] : [];
 }
 
-// Reads the serializer's timing file (if any) into the marks map and removes
-// it. Silently ignores a missing/old file (e.g. a serializer build without
-// timing support).
-export function perfReadSpawnFile(file: string): void {
-  if (!file) return;
+// Reads the serializer's timings (if any) from its stderr into the marks map.
+// Silently ignores their absence (e.g. a serializer build without
+// `--perf-stats`, or a cache hit).
+export function perfReadSpawnStats(stderr: string): void {
+  if (!process.env["APEX_PERF"]) return;
+  const line = stderr.trimEnd().split("\n").pop();
   try {
-    const timings = JSON.parse(fs.readFileSync(file, "utf8"));
-    // Guard against a partial/garbled file: a missing field divides to NaN
-    // (which JSON.parse wouldn't throw on) and would poison the stats.
+    const stats = JSON.parse(line ?? "");
+    // Guard against unrelated output: a missing field divides to NaN and
+    // would poison the stats.
     if (
-      typeof timings.parseNs === "number" &&
-      typeof timings.serializeNs === "number"
+      typeof stats.parseNs === "number" &&
+      typeof stats.serializeNs === "number"
     ) {
-      marks["javaParseMs"] = timings.parseNs / 1e6;
-      marks["javaSerializeMs"] = timings.serializeNs / 1e6;
+      marks["javaParseMs"] = stats.parseNs / 1e6;
+      marks["javaSerializeMs"] = stats.serializeNs / 1e6;
     }
-    fs.unlinkSync(file);
   } catch {
-    // Older serializer without timing support, or the write failed.
+    // Not a stats record.
+  }
+}
+
+// Reads the parse timing from the HTTP server's Server-Timing header, e.g.
+// `read;dur=0.081, parse;dur=3.402`, into the marks map. The serialize timing
+// only follows in a trailer, which fetch doesn't expose.
+export function perfReadServerTiming(header: string | null): void {
+  if (!process.env["APEX_PERF"] || !header) return;
+  for (const entry of header.split(",")) {
+    const [name, ...params] = entry.trim().split(";");
+    const duration = params.find((param) => param.startsWith("dur="));
+    if (name === "parse" && duration) {
+      marks["javaParseMs"] = Number(duration.slice("dur=".length));
+    }
   }
 }
@@ -19,6 +19,8 @@ import {
 export type SerializedAst = {
   [APEX_TYPES.PARSER_OUTPUT]: jorje.ParserOutput;
   comments: jorje.HiddenToken[];
+  // Only present in class dictionary output, until resolved after parsing.
+  "@classes"?: string[];
 };
 
 export type GenericComment = jorje.HiddenToken;
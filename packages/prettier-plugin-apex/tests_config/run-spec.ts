@@ -5,7 +5,7 @@ import { test } from "vitest";
 
 import * as prettierApex from "../src/index.js";
 
-const { AST_COMPARE, APEX_PARSER } = process.env;
+const { AST_COMPARE, APEX_PARSER, APEX_COMPACT_AST } = process.env;
 
 function read(filename: string): string {
   return fs.readFileSync(filename, "utf8");
@@ -15,6 +15,7 @@ const PARSER_OPTIONS = {
   apexStandaloneParser: APEX_PARSER ?? "none",
   apexStandalonePort: 2117,
   apexStandaloneHost: "localhost",
+  apexCompactAst: APEX_COMPACT_AST === "true",
 };
 
 async function prettyPrint(
@@ -204,8 +204,9 @@ async function benchFile(
     samples.prepping.push((m.prepEnd ?? 0) - (m.deserializeEnd ?? 0));
     samples.printing.push(t1 - (m.prepEnd ?? 0));
     samples.total.push(t1 - t0);
-    // Java-side timings (ms), recorded via the serializer's temp file. Absent
-    // (0) for the built-in HTTP path, which emits no per-call timing.
+    // Java-side timings (ms), reported by the serializer with --perf-stats.
+    // The built-in HTTP path only reports the parse time, in its
+    // Server-Timing header; serialize is absent (0) there.
     const javaParse = m.javaParseMs ?? 0;
     const javaSerialize = m.javaSerializeMs ?? 0;
     samples["java-parse"].push(javaParse);
@@ -7,6 +7,7 @@ declare module "prettier" {
     apexStandaloneHost: string;
     apexStandaloneProtocol: string;
     apexInsertFinalNewline: boolean;
+    apexCompactAst: boolean;
   }
   namespace __debug {
     export function parse(